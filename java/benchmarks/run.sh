@@ -0,0 +1,9 @@
+#!/bin/bash
+set -euo pipefail
+IFS=$'\n\t'
+
+# Run the client benchmarks against the in-process vault stand-in.
+# Run ../prepare.sh first so that the client wrappers are installed.
+# Extra arguments are passed to JMH, e.g. ./run.sh TokensClientBenchmark.tokenize
+mvn clean package
+java -jar target/benchmarks.jar -prof gc -rf json -rff target/results.json "$@"
@@ -0,0 +1,41 @@
+package benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.piiano.vault.client.openapi.ApiException;
+import common.ApiError;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Parsing the errors of the vault, the hot path of retry storms. Run with -prof gc to
+// see the allocations per error.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ApiErrorBenchmark {
+
+    private ApiException exception;
+
+    @Setup
+    public void setUp() {
+        exception = new ApiException(409, "Conflict", Map.of("Content-Type", List.of("application/json")),
+                "{\"error_code\":\"PV3004\",\"error_url\":\"https://docs.piiano.com/api/error-codes#PV3004\"," +
+                        "\"message\":\"A unique property value already exists.\"," +
+                        "\"context\":{\"property\":\"ssn\",\"collection\":\"customers\"}}");
+    }
+
+    @Benchmark
+    public String errorCode() throws JsonProcessingException {
+        return ApiError.fromException(exception).error_code;
+    }
+
+    @Benchmark
+    public Map<String, String> context() throws JsonProcessingException {
+        return ApiError.fromException(exception).getContext();
+    }
+}
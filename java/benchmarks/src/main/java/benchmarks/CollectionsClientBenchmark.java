@@ -0,0 +1,41 @@
+package benchmarks;
+
+import collections.CollectionsClient;
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.Collection;
+import common.Factory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollectionsClientBenchmark {
+
+    private InProcessVault vault;
+    private CollectionsClient collectionsClient;
+    private Collection collection;
+
+    @Setup
+    public void setUp() throws IOException {
+        // The stand-in echoes the added collection back.
+        vault = new InProcessVault();
+        collectionsClient = new CollectionsClient(vault.client());
+        collection = Factory.createCollection("customers");
+    }
+
+    @TearDown
+    public void tearDown() {
+        vault.close();
+    }
+
+    @Benchmark
+    public Collection addCollection() throws ApiException {
+        return collectionsClient.add(collection);
+    }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import com.piiano.vault.client.openapi.model.ObjectFieldsPage;
+import common.Factory;
+import common.JsonMappers;
+import objects.ColumnarPage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Decoding a page of objects of the getting started collection into a ColumnarPage, compared
+// to reading it into an ObjectFieldsPage with the JSON mapper of the client, and reading the
+// ssn of each object. Run with -prof gc to see the allocations per page.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColumnarPageBenchmark {
+
+    @Param({"100", "5000"})
+    public int pageSize;
+
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        var objects = Factory.createObjects();
+        var results = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < pageSize; i++) {
+            var object = new LinkedHashMap<String, Object>();
+            object.put("id", UUID.randomUUID().toString());
+            object.putAll(objects.get(i % objects.size()));
+            results.add(object);
+        }
+        json = JsonMappers.mapper().writeValueAsBytes(Map.of("results", results,
+                "paging", Map.of("cursor", "", "size", pageSize, "remaining_count", 0)));
+    }
+
+    @Benchmark
+    public int columnar() throws IOException {
+        var page = ColumnarPage.parse(new ByteArrayInputStream(json));
+        int ssn = page.columnIndex("ssn");
+        int length = 0;
+        for (int row = 0; row < page.rowCount(); row++) {
+            length += page.value(row, ssn).toString().length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int maps() throws IOException {
+        ObjectFieldsPage page = JsonMappers.reader(ObjectFieldsPage.class).readValue(json);
+        int length = 0;
+        for (var object : page.getResults()) {
+            length += object.get("ssn").toString().length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import com.piiano.vault.client.openapi.ApiClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// InProcessVault is an HTTP stand-in for the vault that replies to each route with a canned
+// response, so that the benchmarks measure the cost of the client wrappers and of the HTTP
+// round trip on the loopback interface, and run offline.
+// A route is an HTTP method and the last segment of the request path, e.g. "POST tokens".
+// Routes without a canned response echo the request body.
+class InProcessVault implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, byte[]> responses = new ConcurrentHashMap<>();
+
+    InProcessVault() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    // Create a client of this vault.
+    ApiClient client() {
+        ApiClient apiClient = new ApiClient();
+        apiClient.setBasePath("http://localhost:" + server.getAddress().getPort());
+        apiClient.setBearerToken("pvaultauth");
+        apiClient.addDefaultHeader("Content-Type", "application/json");
+        return apiClient;
+    }
+
+    void respond(String method, String lastPathSegment, String json) {
+        responses.put(method + " " + lastPathSegment, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange; InputStream body = exchange.getRequestBody()) {
+            var request = body.readAllBytes();
+            var path = exchange.getRequestURI().getPath();
+            var route = exchange.getRequestMethod() + " " + path.substring(path.lastIndexOf('/') + 1);
+            var response = responses.getOrDefault(route, request);
+
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            if (response.length == 0) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package benchmarks;
+
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.ObjectID;
+import objects.ObjectsClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObjectsClientBenchmark {
+
+    private static final String COLLECTION_NAME = "customers";
+
+    private InProcessVault vault;
+    private ObjectsClient objectsClient;
+    private Map<String, Object> fields;
+
+    @Setup
+    public void setUp() throws IOException {
+        vault = new InProcessVault();
+        vault.respond("POST", "objects", "{\"id\":\"" + UUID.randomUUID() + "\"}");
+        objectsClient = new ObjectsClient(vault.client());
+
+        fields = new HashMap<>();
+        fields.put("ssn", "123-12-1234");
+        fields.put("email", "john@somemail.com");
+        fields.put("phone_number", "+1121212123");
+        fields.put("zip_code_us", "12345");
+    }
+
+    @TearDown
+    public void tearDown() {
+        vault.close();
+    }
+
+    @Benchmark
+    public ObjectID addObject() throws ApiException {
+        return objectsClient.add(COLLECTION_NAME, fields);
+    }
+}
@@ -0,0 +1,53 @@
+package benchmarks;
+
+import collections.CollectionSchema;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.piiano.vault.client.openapi.ApiException;
+import common.Factory;
+import common.JsonMappers;
+import objects.EncodedObject;
+import objects.RecordCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Validating and serializing an object of the getting started collection with a RecordCodec,
+// compared to serializing its map with the JSON mapper of the client. Run with -prof gc to
+// see the allocations per object.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordCodecBenchmark {
+
+    private Map<String, Object> fields;
+    private Object[] record;
+    private RecordCodec codec;
+    private EncodedObject encoded;
+
+    @Setup
+    public void setUp() throws ApiException {
+        var schema = new CollectionSchema(Factory.createCollection("customers"));
+        fields = Factory.createObjects().get(0);
+        codec = new RecordCodec(schema);
+        encoded = codec.newObject();
+        record = new Object[codec.fieldNames().size()];
+        for (var entry : fields.entrySet()) {
+            record[codec.indexOf(entry.getKey())] = entry.getValue();
+        }
+    }
+
+    @Benchmark
+    public int codec() throws ApiException {
+        codec.encode(record, encoded);
+        return encoded.length();
+    }
+
+    @Benchmark
+    public int mapper() throws JsonProcessingException {
+        return JsonMappers.mapper().writeValueAsBytes(fields).length;
+    }
+}
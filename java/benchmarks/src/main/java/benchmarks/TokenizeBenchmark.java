@@ -0,0 +1,76 @@
+package benchmarks;
+
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.InputObject;
+import com.piiano.vault.client.openapi.model.TokenType;
+import com.piiano.vault.client.openapi.model.TokenValue;
+import com.piiano.vault.client.openapi.model.TokenizeRequest;
+import org.openjdk.jmh.annotations.*;
+import tokens.TokensClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Benchmark of TokensClient.tokenize of batchSize objects, per token type.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizeBenchmark {
+
+    private static final String COLLECTION_NAME = "customers";
+    private static final List<String> PROPS = List.of("ssn", "email");
+    private static final List<String> TAGS = List.of("token_tag_1");
+
+    @Param({"POINTER", "RANDOMIZED", "PCI", "DETERMINISTIC"})
+    public TokenType tokenType;
+
+    @Param({"1", "100"})
+    public int batchSize;
+
+    private InProcessVault vault;
+    private TokensClient tokensClient;
+    private List<TokenizeRequest> tokenizeRequests;
+
+    @Setup
+    public void setUp() throws IOException {
+        tokenizeRequests = new ArrayList<>(batchSize);
+        var tokenValues = new StringBuilder("[");
+        for (int i = 0; i < batchSize; i++) {
+            tokenizeRequests.add(createTokenizeRequest(UUID.randomUUID()));
+            tokenValues.append(i == 0 ? "" : ",")
+                    .append("{\"token_id\":\"").append(UUID.randomUUID()).append("\"}");
+        }
+
+        vault = new InProcessVault();
+        vault.respond("POST", "tokens", tokenValues.append("]").toString());
+        tokensClient = new TokensClient(vault.client());
+    }
+
+    @TearDown
+    public void tearDown() {
+        vault.close();
+    }
+
+    @Benchmark
+    public List<TokenValue> tokenize() throws ApiException {
+        return tokensClient.tokenize(COLLECTION_NAME, tokenizeRequests);
+    }
+
+    private TokenizeRequest createTokenizeRequest(UUID objectId) {
+        TokenizeRequest request = new TokenizeRequest();
+        request.setTags(TAGS);
+        request.setType(tokenType);
+        InputObject object = new InputObject();
+        object.setId(objectId);
+        object.setFields(null);
+        request.setObject(object);
+        request.setProps(PROPS);
+        return request;
+    }
+}
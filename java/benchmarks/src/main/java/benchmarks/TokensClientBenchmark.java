@@ -0,0 +1,97 @@
+package benchmarks;
+
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import tokens.TokenDefinition;
+import tokens.TokensClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Benchmarks of TokensClient. Each call handles batchSize tokens, so that the single
+// detokenize benchmark (batchSize calls of one token) can be compared with the batch one.
+// Tokenize is benchmarked per token type by TokenizeBenchmark.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokensClientBenchmark {
+
+    private static final String COLLECTION_NAME = "customers";
+    private static final List<String> TAGS = List.of("token_tag_1");
+
+    @Param({"1", "100"})
+    public int batchSize;
+
+    private InProcessVault vault;
+    private TokensClient tokensClient;
+    private List<String> tokenIds;
+    private QueryToken queryToken;
+
+    @Setup
+    public void setUp() throws IOException {
+        tokenIds = new ArrayList<>(batchSize);
+        var detokenizedTokens = new StringBuilder("[");
+        var tokenMetadata = new StringBuilder("[");
+        var rotatedTokens = new StringBuilder("{");
+
+        for (int i = 0; i < batchSize; i++) {
+            var objectId = UUID.randomUUID();
+            var tokenId = UUID.randomUUID().toString();
+            tokenIds.add(tokenId);
+
+            var separator = i == 0 ? "" : ",";
+            detokenizedTokens.append(separator).append("{\"token_id\":\"").append(tokenId)
+                    .append("\",\"fields\":{\"ssn\":\"123-12-1234\",\"email\":\"john@somemail.com\"}}");
+            tokenMetadata.append(separator).append("{\"token_id\":\"").append(tokenId)
+                    .append("\",\"tokens\":[{\"object_id\":\"").append(objectId).append("\"}]}");
+            rotatedTokens.append(separator).append("\"").append(tokenId).append("\":\"")
+                    .append(UUID.randomUUID()).append("\"");
+        }
+
+        vault = new InProcessVault();
+        vault.respond("GET", "tokens", detokenizedTokens.append("]").toString());
+        vault.respond("POST", "query", tokenMetadata.append("]").toString());
+        vault.respond("POST", "rotate", rotatedTokens.append("}").toString());
+        tokensClient = new TokensClient(vault.client());
+
+        queryToken = new QueryToken();
+        queryToken.setTags(TAGS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        vault.close();
+    }
+
+    @Benchmark
+    public List<DetokenizedToken> batchDetokenize() throws ApiException {
+        return tokensClient.detokenize(COLLECTION_NAME, new TokenDefinition(tokenIds, null, null), true, false);
+    }
+
+    @Benchmark
+    public void singleDetokenize(Blackhole blackhole) throws ApiException {
+        for (var tokenId : tokenIds) {
+            blackhole.consume(tokensClient.detokenize(
+                    COLLECTION_NAME, new TokenDefinition(List.of(tokenId), null, null), true, false));
+        }
+    }
+
+    @Benchmark
+    public List<TokenMetadata> searchTokens() throws ApiException {
+        return tokensClient.searchTokens(COLLECTION_NAME, queryToken);
+    }
+
+    @Benchmark
+    public Map<String, String> rotateTokens() throws ApiException {
+        return tokensClient.rotateTokens(COLLECTION_NAME, tokenIds);
+    }
+}
@@ -2,5 +2,5 @@
 set -euo pipefail
 IFS=$'\n\t'
 
-# Run 'Getting started'.
-java -ea -jar ~/.m2/repository/com/piiano/piiano-vault-getting-started-java/0.0.1-SNAPSHOT/piiano-vault-getting-started-java-0.0.1-SNAPSHOT.jar
+# Run 'Getting started'. Pass load and its parameters to generate load, e.g. ./run.sh load rate=500
+java -ea -jar ~/.m2/repository/com/piiano/piiano-vault-getting-started-java/0.0.1-SNAPSHOT/piiano-vault-getting-started-java-0.0.1-SNAPSHOT.jar "$@"
@@ -98,8 +98,18 @@ public class PvaultGettingStarted {
         // Note: Adding a collection with pvschema is not supported in the SDK
         // Throughout this code we will use JSON exclusively.
 
+        Collection collection = buildCollection(COLLECTION_NAME);
+        collectionApi.addCollection(collection, JSON, NO_OPTIONS);
+
+        // Check the collections has been added.
+        collection = collectionApi.getCollection(COLLECTION_NAME, JSON, NO_OPTIONS);
+        assert collection != null;
+        print("collection: ", collection.toString());
+    }
+
+    static Collection buildCollection(String collectionName) {
         Collection collection = new Collection();
-        collection.setName(COLLECTION_NAME);
+        collection.setName(collectionName);
         collection.setType(Collection.TypeEnum.PERSONS);
 
         collection.addPropertiesItem(
@@ -117,13 +127,7 @@ public class PvaultGettingStarted {
         collection.addPropertiesItem(
                 buildProperty("zip_code_us", "ZIP_CODE_US", "ZIP_CODE_US",
                         false, true, true, false));
-
-        collectionApi.addCollection(collection, JSON, NO_OPTIONS);
-
-        // Check the collections has been added.
-        collection = collectionApi.getCollection(COLLECTION_NAME, JSON, NO_OPTIONS);
-        assert collection != null;
-        print("collection: ", collection.toString());
+        return collection;
     }
 
     private static List<UUID> addData(ObjectsApi objectsApi) throws ApiException {
@@ -241,10 +245,11 @@ public class PvaultGettingStarted {
                 NO_OPTIONS, NO_ADHOC_REASON, false, emptyList());
     }
 
-    private static ApiClient getApiClient() {
+    static ApiClient getApiClient() {
 
-        // Create configuration, bearer auth and client API
-        ApiClient pvaultClient = Configuration.getDefaultApiClient();
+        // Create a client of our own rather than changing the global default client,
+        // then configure bearer auth and client API
+        ApiClient pvaultClient = new ApiClient();
         pvaultClient.setBasePath("http://localhost:" + PVAULT_ADDRESS);
         pvaultClient.setBearerToken("pvaultauth");
         pvaultClient.addDefaultHeader("Content-Type", "application/json");
@@ -266,7 +271,7 @@ public class PvaultGettingStarted {
         return property;
     }
 
-    private static Map<String, Object> buildObjectDetails(
+    static Map<String, Object> buildObjectDetails(
             String ssn, String email, String phoneNumber, String zipCodeUS) {
 
         Map<String, Object> objectDetails = new HashMap<>();
@@ -284,10 +289,14 @@ public class PvaultGettingStarted {
         System.out.println();
     }
 
+    // Run 'Getting started', or with "load" as the first argument, generate load, see PvaultLoad.
     public static void main(String[] args) {
-        PvaultGettingStarted pvaultGettingStarted = new PvaultGettingStarted();
         try {
-            pvaultGettingStarted.run();
+            if (args.length > 0 && args[0].equals("load")) {
+                PvaultLoad.fromArgs(Arrays.copyOfRange(args, 1, args.length)).run();
+            } else {
+                new PvaultGettingStarted().run();
+            }
         } catch (ApiException apiException) {
             if (apiException.getMessage().contains("java.net.ConnectException")) {
                 print(apiException.getMessage() + "\n\nIs the Vault running?\n");
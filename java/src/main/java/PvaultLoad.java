@@ -0,0 +1,400 @@
+import com.piiano.vault.client.openapi.*;
+import com.piiano.vault.client.openapi.model.Collection;
+import com.piiano.vault.client.openapi.model.*;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.Collections.emptyList;
+
+// PvaultLoad is the load mode of PvaultGettingStarted:
+//   ./run.sh load rate=500 duration=60 mix=add:20,tokenize:20,detokenize:40,list:15,delete:5
+// It runs a mix of operations on a collection of its own at a fixed arrival rate. The load is
+// open loop: operations start on schedule whether or not the previous ones completed, each
+// on its own virtual thread when the JVM has them, or else on a pool of platform threads. The latency of an operation is measured
+// from the time it was scheduled to start, so time spent waiting behind a slow vault is
+// counted (no coordinated omission). The service time, from the time the operation actually
+// started, is reported next to it.
+// Parameters, all optional:
+//   rate        operations per second (default 100)
+//   duration    seconds of load after warmup (default 60)
+//   warmup      seconds of load that are not measured (default 10)
+//   mix         the relative weights of add, tokenize, detokenize, list and delete
+//   token_type  the TokenType of tokenize (default POINTER)
+//   objects     the number of objects added before the load starts (default 1000)
+//   in_flight   the maximum number of operations in flight (default 10000); when it is
+//               reached the schedule slips, and the slip is counted in the latency
+//   threads     the number of platform threads when the JVM has no virtual threads
+//               (default 1000); operations beyond it wait for a thread, and the wait is
+//               counted in the latency
+// An operation that finds no object or token to work on, e.g. after deletes, is not made.
+// It is counted as "no operand" rather than as an error, and its latency is not recorded.
+public class PvaultLoad {
+
+    enum Operation {ADD, TOKENIZE, DETOKENIZE, LIST, DELETE}
+
+    private static final String DEFAULT_MIX = "add:20,tokenize:20,detokenize:40,list:15,delete:5";
+    private static final List<String> MASKS = List.of("ssn.mask", "email.mask", "phone_number.mask");
+    // Histograms track latencies of up to an hour with 3 significant digits.
+    private static final long MAX_LATENCY_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    private final int rate;
+    private final Duration duration;
+    private final Duration warmup;
+    private final Operation[] schedule;
+    private final TokenType tokenType;
+    private final int initialObjects;
+    private final Semaphore inFlight;
+    private final int threads;
+    private final String collectionName = PvaultGettingStarted.COLLECTION_NAME + "_load_"
+            + UUID.randomUUID().toString().substring(0, 8);
+
+    private final Map<Operation, Recorder> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, Recorder> serviceTimes = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> noOperands = new EnumMap<>(Operation.class);
+    private final IdRing<UUID> objectIds = new IdRing<>(1 << 16);
+    private final IdRing<String> tokenIds = new IdRing<>(1 << 16);
+    private final AtomicLong sequence = new AtomicLong();
+
+    private ObjectsApi objectsApi;
+    private TokensApi tokensApi;
+    private volatile boolean measuring;
+
+    PvaultLoad(Map<String, String> parameters) {
+        this.rate = Integer.parseInt(parameters.getOrDefault("rate", "100"));
+        this.duration = Duration.ofSeconds(Long.parseLong(parameters.getOrDefault("duration", "60")));
+        this.warmup = Duration.ofSeconds(Long.parseLong(parameters.getOrDefault("warmup", "10")));
+        this.schedule = schedule(parameters.getOrDefault("mix", DEFAULT_MIX));
+        this.tokenType = TokenType.fromValue(parameters.getOrDefault("token_type", "pointer").toLowerCase());
+        this.initialObjects = Integer.parseInt(parameters.getOrDefault("objects", "1000"));
+        this.inFlight = new Semaphore(Integer.parseInt(parameters.getOrDefault("in_flight", "10000")));
+        this.threads = Integer.parseInt(parameters.getOrDefault("threads", "1000"));
+        if (rate < 1 || initialObjects < 1 || threads < 1) {
+            throw new IllegalArgumentException("rate, objects and threads must be positive");
+        }
+        for (var operation : Operation.values()) {
+            latencies.put(operation, new Recorder(MAX_LATENCY_NANOS, 3));
+            serviceTimes.put(operation, new Recorder(MAX_LATENCY_NANOS, 3));
+            errors.put(operation, new AtomicLong());
+            noOperands.put(operation, new AtomicLong());
+        }
+    }
+
+    // Parameters are given as name=value.
+    static PvaultLoad fromArgs(String[] args) {
+        var parameters = new HashMap<String, String>();
+        for (var arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 1) {
+                throw new IllegalArgumentException("expected name=value, not " + arg);
+            }
+            parameters.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        return new PvaultLoad(parameters);
+    }
+
+    public void run() throws Exception {
+        // The JDK transport of the client keeps only 5 idle connections per host by default.
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", "1000");
+        }
+        ApiClient pvaultClient = PvaultGettingStarted.getApiClient();
+        CollectionsApi collectionsApi = new CollectionsApi(pvaultClient);
+        objectsApi = new ObjectsApi(pvaultClient);
+        tokensApi = new TokensApi(pvaultClient);
+
+        print("Creating collection " + collectionName + " with " + initialObjects + " objects");
+        collectionsApi.addCollection(PvaultGettingStarted.buildCollection(collectionName), PvaultGettingStarted.JSON,
+                PvaultGettingStarted.NO_OPTIONS);
+        var executor = createExecutor(threads);
+        try {
+            for (int i = 0; i < initialObjects; i++) {
+                addObject();
+            }
+            print("Running " + rate + " operations per second for " + warmup.getSeconds() + "s of warmup and "
+                    + duration.getSeconds() + "s of load"
+                    + (usesVirtualThreads(executor) ? " on virtual threads" : " on " + threads + " threads"));
+            generate(executor, warmup);
+            measuring = true;
+            generate(executor, duration);
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            report(duration.toNanos());
+        } finally {
+            executor.shutdownNow();
+            collectionsApi.deleteCollection(collectionName);
+        }
+    }
+
+    // Start operations every 1/rate seconds for the duration. The operations are started
+    // in the order of the schedule, which interleaves them by their weights.
+    private void generate(ExecutorService executor, Duration duration) throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        long count = 0;
+        for (long intended = start; intended - end < 0; intended = start + ++count * intervalNanos) {
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            var operation = schedule[(int) (count % schedule.length)];
+            long intendedStart = intended;
+            inFlight.acquire();
+            try {
+                executor.execute(() -> {
+                    try {
+                        execute(operation, intendedStart);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                throw e;
+            }
+        }
+    }
+
+    private void execute(Operation operation, long intendedStart) {
+        long start = System.nanoTime();
+        boolean made = true;
+        try {
+            switch (operation) {
+                case ADD:
+                    addObject();
+                    break;
+                case TOKENIZE:
+                    made = tokenize();
+                    break;
+                case DETOKENIZE:
+                    made = detokenize();
+                    break;
+                case LIST:
+                    made = listWithMasks();
+                    break;
+                case DELETE:
+                    made = deleteObject();
+                    break;
+            }
+        } catch (ApiException | RuntimeException e) {
+            if (measuring) {
+                errors.get(operation).incrementAndGet();
+            }
+        }
+        long end = System.nanoTime();
+        if (!made) {
+            if (measuring) {
+                noOperands.get(operation).incrementAndGet();
+            }
+            return;
+        }
+        if (measuring) {
+            latencies.get(operation).recordValue(Math.min(end - intendedStart, MAX_LATENCY_NANOS));
+            serviceTimes.get(operation).recordValue(Math.min(end - start, MAX_LATENCY_NANOS));
+        }
+    }
+
+    private void addObject() throws ApiException {
+        // The ssn is unique in the collection. Its area, group and serial numbers are in ranges
+        // that are valid for an SSN.
+        long n = sequence.incrementAndGet();
+        var ssn = String.format("%03d-%02d-%04d", 100 + n / 810_000 % 500, 10 + n / 9000 % 90, 1000 + n % 9000);
+        var objectDetails = PvaultGettingStarted.buildObjectDetails(
+                ssn, "customer" + n + "@somemail.com", "+1-121212123", "12345");
+        objectIds.add(objectsApi.addObject(collectionName, PvaultGettingStarted.APP_FUNCTIONALITY_REASON,
+                objectDetails, PvaultGettingStarted.NO_ADHOC_REASON, false, emptyList(),
+                PvaultGettingStarted.USE_DEFAULT_TTL, false, null).getId());
+    }
+
+    private boolean tokenize() throws ApiException {
+        var objectId = objectIds.random();
+        if (objectId == null) {
+            return false;
+        }
+        var tokenizeRequest = new TokenizeRequest();
+        var object = new InputObject();
+        object.setId(objectId);
+        tokenizeRequest.setObject(object);
+        tokenizeRequest.addPropsItem("email");
+        tokenizeRequest.setType(tokenType);
+        tokenIds.add(tokensApi.tokenize(collectionName, PvaultGettingStarted.APP_FUNCTIONALITY_REASON,
+                List.of(tokenizeRequest), PvaultGettingStarted.USE_DEFAULT_TTL, emptyList(),
+                PvaultGettingStarted.NO_TRANSACTION_ID, PvaultGettingStarted.NO_ADHOC_REASON, false).get(0).getTokenId());
+        return true;
+    }
+
+    // The token may be of a deleted object, in which case it is not returned.
+    private boolean detokenize() throws ApiException {
+        var tokenId = tokenIds.random();
+        if (tokenId == null) {
+            return false;
+        }
+        tokensApi.detokenize(collectionName, PvaultGettingStarted.APP_FUNCTIONALITY_REASON, emptyList(),
+                emptyList(), List.of(tokenId), emptyList(), PvaultGettingStarted.NO_OPTIONS, emptyList(),
+                PvaultGettingStarted.NO_ADHOC_REASON, false);
+        return true;
+    }
+
+    private boolean listWithMasks() throws ApiException {
+        var objectId = objectIds.random();
+        if (objectId == null) {
+            return false;
+        }
+        objectsApi.listObjects(collectionName, PvaultGettingStarted.APP_FUNCTIONALITY_REASON,
+                PvaultGettingStarted.NO_ADHOC_REASON, false, null, "", false, "",
+                emptyList(), List.of(objectId), PvaultGettingStarted.NO_OPTIONS, MASKS);
+        return true;
+    }
+
+    private boolean deleteObject() throws ApiException {
+        var objectId = objectIds.remove();
+        if (objectId == null) {
+            return false;
+        }
+        objectsApi.deleteObjectById(collectionName, objectId, PvaultGettingStarted.APP_FUNCTIONALITY_REASON,
+                PvaultGettingStarted.NO_OPTIONS, PvaultGettingStarted.NO_ADHOC_REASON, false, emptyList());
+        return true;
+    }
+
+    // The rates are of the operations completed during the load.
+    private void report(long elapsedNanos) {
+        print(String.format("%n%-12s %10s %10s %8s %10s %10s %10s %10s %10s %10s %12s",
+                "operation", "count", "ops/s", "errors", "no operand", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms",
+                "svc p99 ms"));
+        for (var operation : Operation.values()) {
+            Histogram latency = latencies.get(operation).getIntervalHistogram();
+            Histogram serviceTime = serviceTimes.get(operation).getIntervalHistogram();
+            if (latency.getTotalCount() == 0 && noOperands.get(operation).get() == 0) {
+                continue;
+            }
+            print(String.format("%-12s %10d %10.1f %8d %10d %10.2f %10.2f %10.2f %10.2f %10.2f %12.2f",
+                    operation.name().toLowerCase(), latency.getTotalCount(),
+                    latency.getTotalCount() * 1e9 / elapsedNanos, errors.get(operation).get(),
+                    noOperands.get(operation).get(),
+                    millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(90)),
+                    millis(latency.getValueAtPercentile(99)), millis(latency.getValueAtPercentile(99.9)),
+                    millis(latency.getMaxValue()), millis(serviceTime.getValueAtPercentile(99))));
+        }
+    }
+
+    // A cycle of operations in which each operation appears as many times as its weight,
+    // spread out rather than in runs.
+    private static Operation[] schedule(String mix) {
+        var weights = new EnumMap<Operation, Integer>(Operation.class);
+        for (var item : mix.split(",")) {
+            var nameAndWeight = item.split(":");
+            if (nameAndWeight.length != 2) {
+                throw new IllegalArgumentException("expected operation:weight, not " + item);
+            }
+            int weight = Integer.parseInt(nameAndWeight[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("negative weight " + item);
+            }
+            if (weight == 0) {
+                continue;
+            }
+            weights.put(Operation.valueOf(nameAndWeight[0].trim().toUpperCase()), weight);
+        }
+        int total = weights.values().stream().mapToInt(Integer::intValue).sum();
+        if (total == 0) {
+            throw new IllegalArgumentException("the mix is empty");
+        }
+        // Smooth weighted round robin.
+        var schedule = new Operation[total];
+        var current = new EnumMap<Operation, Integer>(Operation.class);
+        for (int i = 0; i < total; i++) {
+            Operation next = null;
+            for (var entry : weights.entrySet()) {
+                int value = current.merge(entry.getKey(), entry.getValue(), Integer::sum);
+                if (next == null || value > current.get(next)) {
+                    next = entry.getKey();
+                }
+            }
+            current.merge(next, -total, Integer::sum);
+            schedule[i] = next;
+        }
+        return schedule;
+    }
+
+    // A virtual thread per operation on Java 21 and later. Before, a fixed pool of platform
+    // threads, as a thread per operation could start as many threads as operations in flight.
+    private static ExecutorService createExecutor(int threads) {
+        try {
+            var newVirtualThreadPerTaskExecutor = MethodHandles.publicLookup().findStatic(
+                    Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invokeExact();
+        } catch (NoSuchMethodException | IllegalAccessException | UnsupportedOperationException e) {
+            // Before Java 19, or virtual threads are a preview feature that is not enabled.
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "pvault-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static boolean usesVirtualThreads(ExecutorService executor) {
+        return !(executor instanceof ThreadPoolExecutor);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static void print(String line) {
+        System.out.println(line);
+    }
+
+    // A fixed size ring of ids to pick operands from. When it is full the oldest ids are
+    // overwritten, so operations pick among the most recent ids.
+    // Removed ids leave empty slots, so a pick is retried up to MAX_PICKS times.
+    private static final class IdRing<T> {
+        private static final int MAX_PICKS = 16;
+
+        private final AtomicReferenceArray<T> ids;
+        private final AtomicLong added = new AtomicLong();
+
+        private IdRing(int capacity) {
+            ids = new AtomicReferenceArray<>(capacity);
+        }
+
+        private void add(T id) {
+            ids.set((int) (added.getAndIncrement() % ids.length()), id);
+        }
+
+        // Returns null if the ring is empty, or the slots picked were all removed.
+        private T random() {
+            long size = Math.min(added.get(), ids.length());
+            for (int i = 0; i < MAX_PICKS && size > 0; i++) {
+                var id = ids.get(ThreadLocalRandom.current().nextInt((int) size));
+                if (id != null) {
+                    return id;
+                }
+            }
+            return null;
+        }
+
+        private T remove() {
+            long size = Math.min(added.get(), ids.length());
+            for (int i = 0; i < MAX_PICKS && size > 0; i++) {
+                var id = ids.getAndSet(ThreadLocalRandom.current().nextInt((int) size), null);
+                if (id != null) {
+                    return id;
+                }
+            }
+            return null;
+        }
+    }
+}
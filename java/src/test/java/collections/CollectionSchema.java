@@ -0,0 +1,82 @@
+package collections;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.Collection;
+import com.piiano.vault.client.openapi.model.Property;
+import common.JsonMappers;
+
+import javax.ws.rs.core.Response;
+import java.util.*;
+
+// CollectionSchema is the schema of a collection as returned by the vault, indexed by
+// property name so that objects can be validated before they are sent to the vault.
+public class CollectionSchema {
+
+    // The id of an object may be set when it is added, although it is not a property.
+    private static final String ID = "id";
+
+    private final Collection collection;
+    private final Map<String, Property> properties = new HashMap<>();
+    private final List<String> requiredProperties = new ArrayList<>();
+
+    public CollectionSchema(Collection collection) {
+        this.collection = collection;
+        if (collection.getProperties() != null) {
+            for (var property : collection.getProperties()) {
+                properties.put(property.getName(), property);
+                if (Boolean.FALSE.equals(property.getIsNullable())) {
+                    requiredProperties.add(property.getName());
+                }
+            }
+        }
+    }
+
+    public Collection getCollection() {
+        return collection;
+    }
+
+    public String getName() {
+        return collection.getName();
+    }
+
+    // Returns null if the collection does not have the property.
+    public Property getProperty(String name) {
+        return properties.get(name);
+    }
+
+    // Validate the fields of an object to add to the collection: every field must be a
+    // property of the collection and every property that is not nullable must be set.
+    // Throws a bad request ApiException (see badRequest) without calling the vault.
+    // Checks that require the data of the collection (e.g. is_unique) are left to the vault.
+    public void validate(Map<String, Object> fields) throws ApiException {
+        for (var field : fields.keySet()) {
+            if (!field.equals(ID) && !properties.containsKey(field)) {
+                throw badRequest("property " + field + " is not in collection " + getName());
+            }
+        }
+        for (var property : requiredProperties) {
+            if (fields.get(property) == null) {
+                throw badRequest("property " + property + " is not nullable");
+            }
+        }
+    }
+
+    // A client-side error for an invalid object, shaped like a vault error: its status is 400
+    // and its body is serialized like the errors of the vault, so ApiError.fromException can
+    // parse it. Its error_code, "bad_request", and its empty error_url are not those of the
+    // vault, so callers should rely on the status rather than on the error code.
+    public static ApiException badRequest(String message) {
+        var error = new LinkedHashMap<String, Object>();
+        error.put("error_code", "bad_request");
+        error.put("error_url", "");
+        error.put("message", message);
+        error.put("context", Map.of());
+        try {
+            var body = JsonMappers.mapper().writeValueAsString(error);
+            return new ApiException(Response.Status.BAD_REQUEST.getStatusCode(), message, Map.of(), body);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
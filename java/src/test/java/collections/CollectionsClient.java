@@ -5,6 +5,10 @@ import com.piiano.vault.client.openapi.ApiException;
 import com.piiano.vault.client.openapi.CollectionsApi;
 import com.piiano.vault.client.openapi.model.Collection;
 import com.piiano.vault.client.openapi.model.Property;
+import common.AsyncCalls;
+import metrics.VaultMetrics;
+
+import java.util.concurrent.CompletableFuture;
 
 import static common.Client.JSON;
 import static common.Client.NO_OPTIONS;
@@ -12,9 +16,23 @@ import static common.Client.NO_OPTIONS;
 public class CollectionsClient {
 
     private final CollectionsApi collections;
+    private final SchemaCache schemaCache;
+    private final VaultMetrics metrics;
 
     public CollectionsClient(ApiClient client) {
-        collections = new CollectionsApi(client);
+        this(client, null, VaultMetrics.disabled());
+    }
+
+    public CollectionsClient(ApiClient client, VaultMetrics metrics) {
+        this(client, null, metrics);
+    }
+
+    // When schemaCache is not null, the collections added or deleted by this client are
+    // invalidated in it.
+    public CollectionsClient(ApiClient client, SchemaCache schemaCache, VaultMetrics metrics) {
+        collections = new CollectionsApi(metrics.instrument(client));
+        this.schemaCache = schemaCache;
+        this.metrics = metrics;
     }
 
     public static Property createProp(
@@ -33,10 +51,33 @@ public class CollectionsClient {
     }
 
     public Collection add(Collection collection) throws ApiException {
-        return collections.addCollection(collection, JSON, NO_OPTIONS);
+        try {
+            return metrics.call("collections.add", 0, () -> collections.addCollection(collection, JSON, NO_OPTIONS));
+        } finally {
+            invalidate(collection.getName());
+        }
     }
 
     public void delete(String collectionName) throws ApiException {
-        collections.deleteCollection(collectionName);
+        try {
+            metrics.run("collections.delete", 0, () -> collections.deleteCollection(collectionName));
+        } finally {
+            invalidate(collectionName);
+        }
+    }
+
+    public CompletableFuture<Collection> addAsync(Collection collection) {
+        return AsyncCalls.supply(() -> add(collection));
+    }
+
+    public CompletableFuture<Void> deleteAsync(String collectionName) {
+        return AsyncCalls.run(() -> delete(collectionName));
+    }
+
+    // A failed call may still have changed the collection, so the cache is invalidated anyway.
+    private void invalidate(String collectionName) {
+        if (schemaCache != null) {
+            schemaCache.invalidate(collectionName);
+        }
     }
 }
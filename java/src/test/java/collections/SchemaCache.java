@@ -0,0 +1,114 @@
+package collections;
+
+import com.piiano.vault.client.openapi.ApiClient;
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.CollectionsApi;
+import com.piiano.vault.client.openapi.model.Collection;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import static common.Client.JSON;
+import static common.Client.NO_OPTIONS;
+
+// SchemaCache caches the schemas of collections by collection name, so that objects can be
+// validated against them without fetching the collection for every object.
+// - Schemas expire ttl after they were fetched.
+// - Loading is single flight: callers that miss the same collection concurrently wait for
+//   one fetch. A failed fetch is not cached, its error is thrown to the callers waiting for it.
+// - A CollectionsClient created with the cache invalidates a collection when it adds or
+//   deletes it. Changes made by other clients are seen when the schema expires.
+public class SchemaCache {
+
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+    private final CollectionsApi collections;
+    private final long ttlNanos;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public SchemaCache(ApiClient client) {
+        this(client, DEFAULT_TTL);
+    }
+
+    public SchemaCache(ApiClient client, Duration ttl) {
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        this.collections = new CollectionsApi(client);
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    public CollectionSchema get(String collectionName) throws ApiException {
+        while (true) {
+            var entry = entries.get(collectionName);
+            if (entry != null && !entry.isExpired(System.nanoTime())) {
+                return entry.await();
+            }
+            var loading = new Entry();
+            boolean won = entry == null
+                    ? entries.putIfAbsent(collectionName, loading) == null
+                    : entries.replace(collectionName, entry, loading);
+            if (won) {
+                return load(collectionName, loading);
+            }
+            // Another caller started loading the schema, wait for it.
+        }
+    }
+
+    // Validate the fields of an object to add to the collection, see CollectionSchema.validate.
+    public void validate(String collectionName, Map<String, Object> fields) throws ApiException {
+        get(collectionName).validate(fields);
+    }
+
+    // Remove the schema of the collection. A load in flight is not awaited, its result is
+    // returned to the callers waiting for it but is not cached.
+    public void invalidate(String collectionName) {
+        entries.remove(collectionName);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private CollectionSchema load(String collectionName, Entry entry) throws ApiException {
+        try {
+            Collection collection = collections.getCollection(collectionName, JSON, NO_OPTIONS);
+            var schema = new CollectionSchema(collection);
+            entry.expiresAtNanos = System.nanoTime() + ttlNanos;
+            entry.schema.complete(schema);
+            return schema;
+        } catch (ApiException | RuntimeException e) {
+            entries.remove(collectionName, entry);
+            entry.schema.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static final class Entry {
+        private final CompletableFuture<CollectionSchema> schema = new CompletableFuture<>();
+        // Set before the schema is completed.
+        private volatile long expiresAtNanos;
+
+        // An entry that is still loading has not expired.
+        private boolean isExpired(long now) {
+            return schema.isDone() && now - expiresAtNanos >= 0;
+        }
+
+        private CollectionSchema await() throws ApiException {
+            try {
+                return schema.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ApiException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ApiException) {
+                    throw (ApiException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+}
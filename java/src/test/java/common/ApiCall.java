@@ -0,0 +1,9 @@
+package common;
+
+import com.piiano.vault.client.openapi.ApiException;
+
+// ApiCall is an ApiMethod that returns the result of the call.
+@FunctionalInterface
+public interface ApiCall<T> {
+    T call() throws ApiException;
+}
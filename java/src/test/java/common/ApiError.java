@@ -1,18 +1,28 @@
 package common;
 
+import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.piiano.vault.client.openapi.ApiException;
 
 import javax.ws.rs.core.Response;
+import java.io.IOException;
 import java.util.HashMap;
 
 public class ApiError {
+    private static final ObjectReader CONTEXT_READER =
+            JsonMappers.mapper().readerFor(new TypeReference<HashMap<String, String>>() {
+            });
+
     public Response.Status status;
     public String error_code;
     public String error_url;
     public String message;
-    public HashMap<String, String> context;
+    private HashMap<String, String> context;
+    // The JSON of the context, decoded by getContext().
+    private String rawContext;
 
     public ApiError() {
     }
@@ -25,10 +35,53 @@ public class ApiError {
         this.context = context;
     }
 
+    // Parse the error returned by the vault.
+    // The body is read with a streaming parser, without building a tree. The context is only
+    // located, and decoded when getContext() is called. A response without a body is an error
+    // with a status only.
     public static ApiError fromException(ApiException ex) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        var error = mapper.readValue(ex.getResponseBody(), ApiError.class);
+        var error = new ApiError();
         error.status = Response.Status.fromStatusCode(ex.getCode());
+        var body = ex.getResponseBody();
+        if (body == null || body.isEmpty()) {
+            return error;
+        }
+
+        try (var parser = JsonMappers.factory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "the response body is not a vault error");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var field = parser.getCurrentName();
+                var token = parser.nextToken();
+                switch (field) {
+                    case "error_code":
+                        error.error_code = parser.getValueAsString();
+                        break;
+                    case "error_url":
+                        error.error_url = parser.getValueAsString();
+                        break;
+                    case "message":
+                        error.message = parser.getValueAsString();
+                        break;
+                    case "context":
+                        if (token == JsonToken.START_OBJECT) {
+                            int start = (int) parser.getTokenLocation().getCharOffset();
+                            parser.skipChildren();
+                            error.rawContext = body.substring(start, (int) parser.getCurrentLocation().getCharOffset());
+                        }
+                        break;
+                    default:
+                        parser.skipChildren();
+                        break;
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            // Not expected when reading a string.
+            throw new RuntimeException(e);
+        }
         return error;
     }
 
@@ -39,4 +92,12 @@ public class ApiError {
     public static ApiError fromStatusCodeAndMessage(Response.Status status, String error_code, String error_url, String message) {
         return new ApiError(status, error_code, error_url, message, null);
     }
+
+    public HashMap<String, String> getContext() throws JsonProcessingException {
+        if (context == null && rawContext != null) {
+            context = CONTEXT_READER.readValue(rawContext);
+            rawContext = null;
+        }
+        return context;
+    }
 }
@@ -0,0 +1,78 @@
+package common;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.*;
+
+// AsyncCalls runs blocking vault calls asynchronously, for the async methods of the clients.
+// The vault client is blocking, so each call in flight occupies a thread until it completes.
+// On a JVM with virtual threads (Java 21 and later, or 19 and 20 with --enable-preview) each
+// call runs on its own virtual thread, which costs a few hundred bytes while it waits on the
+// vault, so tens of thousands of calls can be in flight. Elsewhere the calls run on a fixed
+// pool of FALLBACK_THREADS platform threads and the rest wait in its queue.
+// Cancelling the returned future, or timing it out with orTimeout(), interrupts the call.
+// An interrupted call stops waiting for a pooled connection; a call that is already reading
+// a response completes within the read timeout of the client and its result is discarded.
+public final class AsyncCalls {
+
+    public static final int FALLBACK_THREADS = 256;
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private AsyncCalls() {
+    }
+
+    public static <T> CompletableFuture<T> supply(ApiCall<T> call) {
+        return supply(call, EXECUTOR);
+    }
+
+    public static <T> CompletableFuture<T> supply(ApiCall<T> call, ExecutorService executor) {
+        var result = new CompletableFuture<T>();
+        Future<?> task;
+        try {
+            task = executor.submit(() -> {
+                try {
+                    result.complete(call.call());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        // The call is interrupted when the result is cancelled or timed out. A result that the
+        // call completed is completed on the thread of the task, which must not cancel itself.
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled() || error instanceof TimeoutException) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    public static CompletableFuture<Void> run(ApiMethod method) {
+        return supply(() -> {
+            method.call();
+            return null;
+        });
+    }
+
+    // Whether the calls run on virtual threads.
+    public static boolean usesVirtualThreads() {
+        return !(EXECUTOR instanceof ThreadPoolExecutor);
+    }
+
+    private static ExecutorService createExecutor() {
+        try {
+            var newVirtualThreadPerTaskExecutor = MethodHandles.publicLookup().findStatic(
+                    Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invokeExact();
+        } catch (NoSuchMethodException | IllegalAccessException | UnsupportedOperationException e) {
+            // Before Java 19, or virtual threads are a preview feature that is not enabled.
+        } catch (Throwable e) {
+            throw new ExceptionInInitializerError(e);
+        }
+        return Executors.newFixedThreadPool(FALLBACK_THREADS, DaemonThreads.named("vault-async"));
+    }
+}
@@ -0,0 +1,83 @@
+package common;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// CircuitBreaker sheds the calls to the vault while it is unavailable.
+// It opens after failureThreshold consecutive failures and rejects calls for openDuration.
+// Then it lets a single probe call through: if the probe succeeds the breaker closes,
+// otherwise it opens again.
+public class CircuitBreaker {
+
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoTime;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    // The time when the breaker opened, or 0 when it is closed.
+    private final AtomicLong openedAt = new AtomicLong();
+    private final AtomicBoolean probing = new AtomicBoolean();
+
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this(failureThreshold, openDuration, System::nanoTime);
+    }
+
+    // nanoTime is the clock of the breaker, System.nanoTime in production.
+    CircuitBreaker(int failureThreshold, Duration openDuration, LongSupplier nanoTime) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.nanoTime = nanoTime;
+    }
+
+    public State state() {
+        long opened = openedAt.get();
+        if (opened == 0) {
+            return State.CLOSED;
+        }
+        return nanoTime.getAsLong() - opened < openNanos ? State.OPEN : State.HALF_OPEN;
+    }
+
+    // Whether a call may be made. A call that is allowed must be followed by
+    // onSuccess(), onFailure() or onIgnoredFailure(), whichever way it ends.
+    public boolean tryAcquire() {
+        switch (state()) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                return probing.compareAndSet(false, true);
+            default:
+                return false;
+        }
+    }
+
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        openedAt.set(0);
+        probing.set(false);
+    }
+
+    public void onFailure() {
+        if (probing.get()) {
+            openedAt.set(nowNonZero());
+            probing.set(false);
+            return;
+        }
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            openedAt.compareAndSet(0, nowNonZero());
+        }
+    }
+
+    // A call that failed with an error that says nothing about the health of the vault.
+    public void onIgnoredFailure() {
+        probing.set(false);
+    }
+
+    private long nowNonZero() {
+        long now = nanoTime.getAsLong();
+        return now == 0 ? 1 : now;
+    }
+}
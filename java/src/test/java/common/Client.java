@@ -1,7 +1,7 @@
 package common;
 
 import com.piiano.vault.client.openapi.ApiClient;
-import com.piiano.vault.client.openapi.Configuration;
+import embedded.EmbeddedVault;
 
 import java.util.Set;
 
@@ -17,15 +17,28 @@ public class Client {
     public static final Boolean RELOAD_CACHE = false;
     public static final String JSON = "json";
     public static final Set<String> NO_OPTIONS = emptySet();
+    // Set this system property to true to run against an embedded vault instead of a vault
+    // on DEFAULT_PVAULT_PORT, e.g. mvn test -Dpvault.embedded=true
+    public static final String EMBEDDED_VAULT_PROPERTY = "pvault.embedded";
 
     public static ApiClient create() {
 
-        // Create configuration, bearer auth and client API
-        ApiClient apiClient = Configuration.getDefaultApiClient();
-        apiClient.setBasePath("http://localhost:" + DEFAULT_PVAULT_PORT);
-        apiClient.setBearerToken("pvaultauth");
-        apiClient.addDefaultHeader("Content-Type", "application/json");
+        // Create a client with its own connection pool, bearer auth and client API
+        return new VaultClientFactory()
+                .basePath("http://localhost:" + port())
+                .create();
+    }
+
+    // Release the pooled connections of a client created by create(), and stop the thread
+    // that evicts its idle connections. The client cannot be used afterwards.
+    public static void close(ApiClient client) {
+        client.getHttpClient().close();
+    }
 
-        return apiClient;
+    private static int port() {
+        if (Boolean.getBoolean(EMBEDDED_VAULT_PROPERTY)) {
+            return EmbeddedVault.shared().getPort();
+        }
+        return DEFAULT_PVAULT_PORT;
     }
 }
@@ -0,0 +1,109 @@
+package common;
+
+import collections.CollectionsClient;
+import com.piiano.vault.client.openapi.ApiClient;
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.Collection;
+import objects.ObjectScanner;
+import objects.ObjectsClient;
+
+import javax.ws.rs.core.Response;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.stream.Collectors.toList;
+
+// CollectionPool provisions the collections of the tests.
+// Every collection gets a unique name, so tests can run in parallel against the same vault,
+// and so can test runs that do not share a JVM. Released collections are truncated and kept
+// for the next test instead of being deleted and created again. A collection that cannot
+// be truncated is deleted. The collections left in the pool are deleted, and the client of
+// the pool is closed, when the JVM exits.
+// All the collections have the schema of Factory.createCollection.
+public class CollectionPool {
+
+    private static final String NAME_PREFIX = "customers_";
+    private static CollectionPool shared;
+
+    private final ApiClient apiClient;
+    private final CollectionsClient collectionsClient;
+    private final ObjectsClient objectsClient;
+    // Distinguishes the collections of this pool from those of other test runs.
+    private final String runId = UUID.randomUUID().toString().substring(0, 8);
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Collection> idle = new ConcurrentLinkedQueue<>();
+
+    private CollectionPool() {
+        apiClient = Client.create();
+        collectionsClient = new CollectionsClient(apiClient);
+        objectsClient = new ObjectsClient(apiClient);
+    }
+
+    // The pool shared by all the tests of this JVM.
+    public static synchronized CollectionPool shared() {
+        if (shared == null) {
+            shared = new CollectionPool();
+            Runtime.getRuntime().addShutdownHook(new Thread(shared::deleteIdle, "collection-pool-cleanup"));
+        }
+        return shared;
+    }
+
+    // An empty collection, either from the pool or newly created.
+    public Collection acquire() throws ApiException {
+        var collection = idle.poll();
+        if (collection != null) {
+            return collection;
+        }
+        return collectionsClient.add(Factory.createCollection(NAME_PREFIX + runId + "_" + sequence.incrementAndGet()));
+    }
+
+    // Truncate the collection and return it to the pool. If the collection cannot be
+    // truncated, e.g. because the test deleted it, the collection is deleted instead.
+    // Deleting an object archives its tokens rather than deleting them, so the tokens of
+    // earlier tests remain in a collection; tests select tokens by their own tags, object
+    // ids or token ids.
+    public void release(Collection collection) throws ApiException {
+        try {
+            truncate(collection.getName());
+            idle.add(collection);
+            return;
+        } catch (ApiException | RuntimeException e) {
+            // Fall back to deleting the collection.
+        }
+        delete(collection.getName());
+    }
+
+    // The ids are read before the objects are deleted so that the deletes do not move the cursor.
+    private void truncate(String collectionName) throws ApiException {
+        List<UUID> objectIds;
+        try (var scanner = new ObjectScanner(objectsClient, collectionName, List.of("id"))) {
+            objectIds = scanner.stream().map(object -> UUID.fromString(object.get("id").toString())).collect(toList());
+        }
+        for (var objectId : objectIds) {
+            objectsClient.deleteById(collectionName, objectId);
+        }
+    }
+
+    private void delete(String collectionName) throws ApiException {
+        try {
+            collectionsClient.delete(collectionName);
+        } catch (ApiException e) {
+            if (e.getCode() != Response.Status.NOT_FOUND.getStatusCode()) {
+                throw e;
+            }
+        }
+    }
+
+    private void deleteIdle() {
+        for (var collection = idle.poll(); collection != null; collection = idle.poll()) {
+            try {
+                delete(collection.getName());
+            } catch (ApiException | RuntimeException e) {
+                // The vault may already be gone.
+            }
+        }
+        Client.close(apiClient);
+    }
+}
@@ -1,23 +1,26 @@
 package common;
 
-import collections.CollectionsClient;
 import com.piiano.vault.client.openapi.ApiClient;
 import com.piiano.vault.client.openapi.ApiException;
 import com.piiano.vault.client.openapi.model.Collection;
+import objects.BulkObjectWriter;
+import objects.ColumnarPage;
 import objects.ObjectsClient;
 
-import javax.ws.rs.core.Response;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
 
+// CollectionSetup provides each test with its own collection of objects, from the
+// CollectionPool, so that tests can run in parallel.
 public class CollectionSetup {
 
     private final ApiClient apiClient = Client.create();
-    private final CollectionsClient collectionsClient = new CollectionsClient(apiClient);
-    private final ObjectsClient objectsClient = new ObjectsClient(apiClient);
-    private final String collectionName = "customers";
+    // The objects are read back as columnar pages.
+    private final ObjectsClient objectsClient = new ObjectsClient(ColumnarPage.register(apiClient));
+    private final CollectionPool pool = CollectionPool.shared();
+    private String collectionName;
     public Map<UUID, Map<String, Object>> mapObjectIdToObjectFields;
     private Collection collection;
     private ArrayList<UUID> objectIds;
@@ -31,7 +34,8 @@ public class CollectionSetup {
     }
 
     public void setUp() throws ApiException {
-        this.collection = addCollection();
+        this.collection = pool.acquire();
+        this.collectionName = collection.getName();
         this.mapObjectIdToObjectFields = addObjects();
         this.objectIds = new ArrayList<>(mapObjectIdToObjectFields.keySet());
 
@@ -39,24 +43,13 @@ public class CollectionSetup {
     }
 
     public void tearDown() throws ApiException {
-        deleteCollectionIfExists(collectionsClient, collectionName);
-    }
-
-    private Collection addCollection() throws ApiException {
-
-        Collection collection = Factory.createCollection(collectionName);
-
-        deleteCollectionIfExists(collectionsClient, collection.getName());
-        return collectionsClient.add(collection);
-    }
-
-    private void deleteCollectionIfExists(CollectionsClient collections, String collectionName) throws ApiException {
         try {
-            collections.delete(collectionName);
-        } catch (ApiException e) {
-            if (e.getCode() != Response.Status.NOT_FOUND.getStatusCode()) {
-                throw e;
+            if (collection != null) {
+                pool.release(collection);
+                collection = null;
             }
+        } finally {
+            Client.close(apiClient);
         }
     }
 
@@ -77,10 +70,17 @@ public class CollectionSetup {
     private Map<UUID, Map<String, Object>> addObjects() throws ApiException {
         Map<UUID, Map<String, Object>> result = new TreeMap<>();
         var objects = Factory.createObjects();
-        for (var obj : objects) {
-            var id = objectsClient.add(collectionName, obj).getId();
-            obj.put("id", id.toString());
-            result.put(id, obj);
+        try (var writer = new BulkObjectWriter(objectsClient)) {
+            var written = writer.write(collectionName, objects.stream());
+            if (written.hasFailures()) {
+                throw written.failures().values().iterator().next();
+            }
+            for (int i = 0; i < objects.size(); i++) {
+                var obj = objects.get(i);
+                var id = written.objectIds().get(i).getId();
+                obj.put("id", id.toString());
+                result.put(id, obj);
+            }
         }
         return result;
     }
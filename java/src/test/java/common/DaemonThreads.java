@@ -0,0 +1,20 @@
+package common;
+
+import java.util.concurrent.ThreadFactory;
+
+// DaemonThreads creates the threads of the executors of the clients. They are daemon threads,
+// so an executor that was not shut down does not keep the JVM from exiting.
+public final class DaemonThreads {
+
+    private DaemonThreads() {
+    }
+
+    // A factory of daemon threads with the given name.
+    public static ThreadFactory named(String name) {
+        return runnable -> {
+            var thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
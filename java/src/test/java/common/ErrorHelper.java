@@ -21,8 +21,8 @@ public class ErrorHelper {
             if (expectedError.message != null) {
                 Assertions.assertEquals(expectedError.message, error.message);
             }
-            if (expectedError.context != null) {
-                Assertions.assertEquals(expectedError.context, error.context);
+            if (expectedError.getContext() != null) {
+                Assertions.assertEquals(expectedError.getContext(), error.getContext());
             }
         }
     }
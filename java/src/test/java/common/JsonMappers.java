@@ -0,0 +1,43 @@
+package common;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.piiano.vault.client.openapi.JSON;
+
+// JsonMappers holds the Jackson mapper shared by the clients and the tests, with a cached
+// ObjectReader per type.
+// An ObjectMapper is expensive to create and is thread safe once configured, and readers
+// and writers are immutable, so they are created once instead of per call. The mapper is
+// configured like the one of the vault client, so it reads and writes the vault model types.
+public final class JsonMappers {
+
+    private static final ObjectMapper MAPPER = new JSON().getContext(Object.class);
+    private static final ObjectWriter PRETTY_WRITER = MAPPER.writerWithDefaultPrettyPrinter();
+    private static final ClassValue<ObjectReader> READERS = new ClassValue<>() {
+        @Override
+        protected ObjectReader computeValue(Class<?> type) {
+            return MAPPER.readerFor(type);
+        }
+    };
+
+    private JsonMappers() {
+    }
+
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+
+    public static JsonFactory factory() {
+        return MAPPER.getFactory();
+    }
+
+    public static ObjectReader reader(Class<?> type) {
+        return READERS.get(type);
+    }
+
+    public static ObjectWriter prettyWriter() {
+        return PRETTY_WRITER;
+    }
+}
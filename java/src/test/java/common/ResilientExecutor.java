@@ -0,0 +1,281 @@
+package common;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.piiano.vault.client.openapi.ApiException;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// ResilientExecutor makes vault calls that survive transient failures, such as a vault restart.
+// - Calls that the vault rejected because it is overloaded (429) or unavailable (503) are
+//   retried with jittered exponential backoff, within a retry budget. Idempotent calls
+//   (callIdempotent) are also retried when the vault is unreachable (no response, including
+//   a read timeout) or a gateway failed (502, 504): a call that changes the vault may have
+//   been applied, and making it again would, e.g., add the object twice. Other errors, such
+//   as 400 or 404, are thrown immediately.
+// - A circuit breaker sheds the calls while the vault keeps failing. Shed calls fail with
+//   a 503 ApiException without reaching the vault.
+// - Idempotent reads (callIdempotent), such as detokenize and listing objects, can be hedged:
+//   when a call takes longer than the p95 latency of the recent calls of the same operation a
+//   second identical call is made and the first result wins.
+public class ResilientExecutor implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+    public static final Duration DEFAULT_BASE_BACKOFF = Duration.ofMillis(50);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(2);
+    public static final double DEFAULT_RETRY_RATIO = 0.2;
+    public static final int DEFAULT_MIN_RETRIES = 10;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(5);
+    public static final double HEDGE_PERCENTILE = 95;
+    public static final Duration MIN_HEDGE_DELAY = Duration.ofMillis(2);
+
+    // The p95 latency of an operation is computed over windows of at least this many calls.
+    private static final int HEDGE_WINDOW_CALLS = 100;
+
+    private final int maxAttempts;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private final RetryBudget retryBudget;
+    private final CircuitBreaker circuitBreaker;
+    private final ExecutorService hedgeExecutor;
+    private final ConcurrentMap<String, HedgeWindow> hedgeWindows = new ConcurrentHashMap<>();
+
+    public ResilientExecutor() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF, DEFAULT_MAX_BACKOFF,
+                new CircuitBreaker(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION), true);
+    }
+
+    // maxAttempts includes the first call.
+    public ResilientExecutor(int maxAttempts, Duration baseBackoff, Duration maxBackoff,
+                             CircuitBreaker circuitBreaker, boolean hedging) {
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffNanos = baseBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        this.retryBudget = new RetryBudget(DEFAULT_RETRY_RATIO, DEFAULT_MIN_RETRIES);
+        this.circuitBreaker = circuitBreaker;
+        this.hedgeExecutor = hedging ? Executors.newCachedThreadPool(DaemonThreads.named("vault-hedge")) : null;
+    }
+
+    public CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void run(ApiMethod method) throws ApiException {
+        execute(() -> {
+            method.call();
+            return null;
+        }, null);
+    }
+
+    public <T> T call(ApiCall<T> call) throws ApiException {
+        return execute(call, null);
+    }
+
+    // Call may be made more than once at the same time, so it must not change anything.
+    // operation names the call, e.g. "objects.list", calls are hedged after the latency of the
+    // calls of the same operation.
+    public <T> T callIdempotent(String operation, ApiCall<T> call) throws ApiException {
+        return execute(call, operation);
+    }
+
+    @Override
+    public void close() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+    }
+
+    // Whether the call failed because the vault is unreachable, overloaded or unavailable.
+    // Only idempotent calls may be retried after all of these failures, see isRejected.
+    public static boolean isRetryable(ApiException e) {
+        Response.Status status;
+        try {
+            status = ApiError.fromException(e).status;
+        } catch (JsonProcessingException | RuntimeException notAVaultError) {
+            status = Response.Status.fromStatusCode(e.getCode());
+        }
+        if (status == null) {
+            // The code is 0 when no response was received.
+            return e.getCode() == 0;
+        }
+        switch (status) {
+            case TOO_MANY_REQUESTS:
+            case BAD_GATEWAY:
+            case SERVICE_UNAVAILABLE:
+            case GATEWAY_TIMEOUT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Whether the vault rejected the call without processing it because it is overloaded or
+    // unavailable, so that a call that changes the vault can be made again.
+    public static boolean isRejected(ApiException e) {
+        int code = e.getCode();
+        return code == Response.Status.TOO_MANY_REQUESTS.getStatusCode()
+                || code == Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
+    }
+
+    // operation is null when the call is not idempotent.
+    private <T> T execute(ApiCall<T> call, String operation) throws ApiException {
+        boolean idempotent = operation != null;
+        var hedgeWindow = idempotent && hedgeExecutor != null
+                ? hedgeWindows.computeIfAbsent(operation, key -> new HedgeWindow()) : null;
+        retryBudget.deposit();
+        for (int attempt = 1; ; attempt++) {
+            if (!circuitBreaker.tryAcquire()) {
+                throw new ApiException(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(),
+                        "the circuit breaker is open, the vault is not called");
+            }
+            try {
+                var result = hedgeWindow != null ? hedged(call, hedgeWindow) : call.call();
+                circuitBreaker.onSuccess();
+                return result;
+            } catch (RuntimeException | Error e) {
+                // A bug of the call, not a failure of the vault. It still ends the call, so
+                // a probe of the breaker is released.
+                circuitBreaker.onIgnoredFailure();
+                throw e;
+            } catch (ApiException e) {
+                if (!isRetryable(e)) {
+                    circuitBreaker.onIgnoredFailure();
+                    throw e;
+                }
+                circuitBreaker.onFailure();
+                if ((!idempotent && !isRejected(e)) || attempt >= maxAttempts || !retryBudget.tryWithdraw()) {
+                    throw e;
+                }
+                sleep(backoffNanos(attempt, e));
+            }
+        }
+    }
+
+    // Full jitter: a random delay up to the exponential backoff, or the Retry-After of the vault.
+    private long backoffNanos(int attempt, ApiException e) {
+        long exponential = Math.min(maxBackoffNanos, baseBackoffNanos << Math.min(attempt - 1, 30));
+        long backoff = ThreadLocalRandom.current().nextLong(exponential + 1);
+        return Math.min(maxBackoffNanos, Math.max(backoff, retryAfterNanos(e)));
+    }
+
+    private static long retryAfterNanos(ApiException e) {
+        var headers = e.getResponseHeaders();
+        if (headers == null) {
+            return 0;
+        }
+        for (var header : headers.entrySet()) {
+            if ("Retry-After".equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                try {
+                    return TimeUnit.SECONDS.toNanos(Long.parseLong(header.getValue().get(0).trim()));
+                } catch (NumberFormatException httpDate) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static void sleep(long nanos) throws ApiException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        }
+    }
+
+    private static <T> T timed(ApiCall<T> call, HedgeWindow hedgeWindow) throws ApiException {
+        long start = System.nanoTime();
+        var result = call.call();
+        hedgeWindow.record(System.nanoTime() - start);
+        return result;
+    }
+
+    // Make the call, and make it again if it does not complete within the hedge delay.
+    // The first result is returned; the call fails only if both calls fail.
+    private <T> T hedged(ApiCall<T> call, HedgeWindow hedgeWindow) throws ApiException {
+        var result = new CompletableFuture<T>();
+        var launched = new AtomicInteger(1);
+        var failures = new AtomicInteger();
+        var firstFailure = new AtomicReference<ApiException>();
+        Runnable attempt = () -> {
+            try {
+                result.complete(timed(call, hedgeWindow));
+            } catch (ApiException e) {
+                firstFailure.compareAndSet(null, e);
+                if (failures.incrementAndGet() == launched.get()) {
+                    result.completeExceptionally(firstFailure.get());
+                }
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        };
+
+        var primary = hedgeExecutor.submit(attempt);
+        Future<?> hedge = null;
+        try {
+            var delay = hedgeWindow.delayNanos;
+            if (delay == Long.MAX_VALUE) {
+                return result.get();
+            }
+            try {
+                return result.get(delay, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException slow) {
+                if (retryBudget.tryWithdraw()) {
+                    launched.incrementAndGet();
+                    hedge = hedgeExecutor.submit(attempt);
+                }
+                return result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ApiException) {
+                throw (ApiException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (var future : hedge == null ? List.of(primary) : List.of(primary, hedge)) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    // The latencies of the calls of an operation. The calls record their latency without a
+    // lock, and the call that completes a window of calls recomputes the hedge delay, which
+    // the calls read from a volatile field.
+    private static final class HedgeWindow {
+        private final Recorder latencies = new Recorder(3);
+        private final AtomicLong calls = new AtomicLong();
+        private Histogram interval;
+        // Long.MAX_VALUE until enough calls were measured.
+        private volatile long delayNanos = Long.MAX_VALUE;
+
+        private void record(long latencyNanos) {
+            latencies.recordValue(latencyNanos);
+            if (calls.incrementAndGet() % HEDGE_WINDOW_CALLS == 0) {
+                update();
+            }
+        }
+
+        // The p95 latency of the calls recorded since the last update.
+        private synchronized void update() {
+            interval = latencies.getIntervalHistogram(interval);
+            if (interval.getTotalCount() > 0) {
+                delayNanos = Math.max(MIN_HEDGE_DELAY.toNanos(), interval.getValueAtPercentile(HEDGE_PERCENTILE));
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// RetryBudget limits the retries to a ratio of the calls, so that retries do not multiply
+// the load on a vault that is already failing.
+// Every call deposits ratio of a retry into the budget and every retry withdraws a whole one.
+// The budget starts with, and never holds more than, minRetries retries.
+class RetryBudget {
+
+    // The budget is kept in thousandths of a retry.
+    private static final long UNIT = 1000;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+
+    RetryBudget(double ratio, int minRetries) {
+        this.deposit = Math.round(ratio * UNIT);
+        this.capacity = Math.max(minRetries * UNIT, deposit);
+        this.balance = new AtomicLong(capacity);
+    }
+
+    void deposit() {
+        balance.accumulateAndGet(deposit, (current, amount) -> Math.min(capacity, current + amount));
+    }
+
+    boolean tryWithdraw() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < UNIT) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - UNIT));
+        return true;
+    }
+}
@@ -0,0 +1,62 @@
+package common;
+
+import com.piiano.vault.client.openapi.ApiException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The calls of these tests do not reach a vault. They run on an executor that counts the
+// tasks that were cancelled, which interrupts their thread.
+public class TestAsyncCalls {
+
+    private final AtomicInteger cancelledTasks = new AtomicInteger();
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), DaemonThreads.named("test-async")) {
+        @Override
+        protected void afterExecute(Runnable task, Throwable error) {
+            if (((Future<?>) task).isCancelled()) {
+                cancelledTasks.incrementAndGet();
+            }
+        }
+    };
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void completedCallsAreNotInterrupted() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            Assertions.assertEquals(value, AsyncCalls.supply(() -> value, executor).get());
+            var failure = Assertions.assertThrows(ExecutionException.class, () -> AsyncCalls.supply(() -> {
+                throw new ApiException(404, "not found");
+            }, executor).get());
+            Assertions.assertInstanceOf(ApiException.class, failure.getCause());
+        }
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, cancelledTasks.get());
+    }
+
+    @Test
+    public void timedOutCallsAreInterrupted() throws Exception {
+        var interrupted = new CountDownLatch(1);
+        var result = AsyncCalls.supply(() -> {
+            try {
+                TimeUnit.MINUTES.sleep(1);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "late";
+        }, executor).orTimeout(10, TimeUnit.MILLISECONDS);
+
+        var failure = Assertions.assertThrows(ExecutionException.class, result::get);
+        Assertions.assertInstanceOf(TimeoutException.class, failure.getCause());
+        Assertions.assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    }
+}
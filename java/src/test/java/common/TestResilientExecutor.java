@@ -0,0 +1,168 @@
+package common;
+
+import com.piiano.vault.client.openapi.ApiException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.ResourceAccessMode;
+import org.junit.jupiter.api.parallel.ResourceLock;
+import org.junit.jupiter.api.parallel.Resources;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// The calls of these tests do not reach a vault, they fail with the given codes.
+public class TestResilientExecutor {
+
+    private static final int NO_RESPONSE = 0;
+    private static final int UNAVAILABLE = 503;
+    private static final Duration OPEN_DURATION = Duration.ofSeconds(10);
+
+    private final AtomicInteger attempts = new AtomicInteger();
+    // The clock of the circuit breakers, moved by the tests.
+    private final AtomicLong clock = new AtomicLong(1);
+
+    @Test
+    public void writesAreRetriedOnlyWhenTheVaultRejectedThem() {
+        try (var executor = executor(3, new CircuitBreaker(100, Duration.ofMinutes(1)))) {
+            // A write that may have been applied is not made again.
+            for (int code : new int[]{NO_RESPONSE, 502, 504}) {
+                attempts.set(0);
+                var failure = Assertions.assertThrows(ApiException.class, () -> executor.call(failing(code)));
+                Assertions.assertEquals(code, failure.getCode());
+                Assertions.assertEquals(1, attempts.get());
+            }
+            for (int code : new int[]{429, UNAVAILABLE}) {
+                attempts.set(0);
+                Assertions.assertThrows(ApiException.class, () -> executor.call(failing(code)));
+                Assertions.assertEquals(3, attempts.get());
+            }
+
+            // A read is made again after any transient failure.
+            for (int code : new int[]{NO_RESPONSE, 502, 504}) {
+                attempts.set(0);
+                Assertions.assertThrows(ApiException.class, () -> executor.callIdempotent("read", failing(code)));
+                Assertions.assertEquals(3, attempts.get());
+            }
+        }
+    }
+
+    @Test
+    public void circuitBreakerOpensAndLetsOneProbeThrough() throws ApiException {
+        var circuitBreaker = new CircuitBreaker(2, OPEN_DURATION, clock::get);
+        try (var executor = executor(1, circuitBreaker)) {
+            for (int i = 0; i < 2; i++) {
+                Assertions.assertThrows(ApiException.class, () -> executor.call(failing(UNAVAILABLE)));
+            }
+            Assertions.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.state());
+
+            // Shed without calling the vault.
+            attempts.set(0);
+            var shed = Assertions.assertThrows(ApiException.class, () -> executor.call(failing(UNAVAILABLE)));
+            Assertions.assertEquals(UNAVAILABLE, shed.getCode());
+            Assertions.assertEquals(0, attempts.get());
+
+            // A failed probe opens the breaker again.
+            clock.addAndGet(OPEN_DURATION.toNanos());
+            Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.state());
+            Assertions.assertThrows(ApiException.class, () -> executor.call(failing(UNAVAILABLE)));
+            Assertions.assertEquals(1, attempts.get());
+            Assertions.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.state());
+
+            // While a probe is in flight the other calls are shed, and a successful probe closes the breaker.
+            clock.addAndGet(OPEN_DURATION.toNanos());
+            Assertions.assertTrue(circuitBreaker.tryAcquire());
+            Assertions.assertFalse(circuitBreaker.tryAcquire());
+            circuitBreaker.onSuccess();
+            Assertions.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.state());
+            Assertions.assertEquals("ok", executor.call(() -> "ok"));
+        }
+    }
+
+    @Test
+    public void probeThatThrowsAnUncheckedExceptionIsReleased() throws ApiException {
+        var circuitBreaker = new CircuitBreaker(1, OPEN_DURATION, clock::get);
+        try (var executor = executor(1, circuitBreaker)) {
+            Assertions.assertThrows(ApiException.class, () -> executor.call(failing(UNAVAILABLE)));
+            clock.addAndGet(OPEN_DURATION.toNanos());
+            Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.state());
+
+            Assertions.assertThrows(IllegalStateException.class, () -> executor.call(() -> {
+                throw new IllegalStateException("a bug of the call");
+            }));
+            // The next call is the probe.
+            Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.state());
+            Assertions.assertEquals("ok", executor.call(() -> "ok"));
+            Assertions.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.state());
+        }
+    }
+
+    @Test
+    public void retriesStopWhenTheBudgetIsExhausted() {
+        try (var executor = executor(100, new CircuitBreaker(1000, Duration.ofMinutes(1)))) {
+            // The budget starts with DEFAULT_MIN_RETRIES retries.
+            Assertions.assertThrows(ApiException.class, () -> executor.call(failing(UNAVAILABLE)));
+            Assertions.assertEquals(1 + ResilientExecutor.DEFAULT_MIN_RETRIES, attempts.get());
+
+            // and a single call deposits only DEFAULT_RETRY_RATIO of a retry.
+            attempts.set(0);
+            Assertions.assertThrows(ApiException.class, () -> executor.call(failing(UNAVAILABLE)));
+            Assertions.assertEquals(1, attempts.get());
+        }
+    }
+
+    // The hedge delay is measured in real time, so the test runs alone.
+    @Test
+    @ResourceLock(value = Resources.GLOBAL, mode = ResourceAccessMode.READ_WRITE)
+    public void slowReadsAreHedged() throws ApiException {
+        try (var executor = new ResilientExecutor(1, Duration.ofMillis(1), Duration.ofMillis(1),
+                new CircuitBreaker(100, Duration.ofMinutes(1)), true)) {
+            // Measure enough fast calls to set the hedge delay.
+            for (int i = 0; i < 100; i++) {
+                executor.callIdempotent("read", () -> "fast");
+            }
+
+            // The calls of another operation are not hedged after the latency of these.
+            Assertions.assertEquals("other", executor.callIdempotent("other", () -> {
+                attempts.incrementAndGet();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+                return "other";
+            }));
+            Assertions.assertEquals(1, attempts.get());
+            attempts.set(0);
+
+            // The first call blocks until it is cancelled, the hedge returns.
+            var cancelled = new CountDownLatch(1);
+            long start = System.nanoTime();
+            var result = executor.callIdempotent("read", () -> {
+                if (attempts.incrementAndGet() == 1) {
+                    try {
+                        TimeUnit.SECONDS.sleep(30);
+                    } catch (InterruptedException e) {
+                        cancelled.countDown();
+                    }
+                    return "slow";
+                }
+                return "hedge";
+            });
+            Assertions.assertEquals("hedge", result);
+            Assertions.assertEquals(2, attempts.get());
+            Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+            Assertions.assertDoesNotThrow(() -> Assertions.assertTrue(cancelled.await(10, TimeUnit.SECONDS)));
+        }
+    }
+
+    private ResilientExecutor executor(int maxAttempts, CircuitBreaker circuitBreaker) {
+        return new ResilientExecutor(maxAttempts, Duration.ofMillis(1), Duration.ofMillis(1), circuitBreaker, false);
+    }
+
+    private ApiCall<String> failing(int code) {
+        return () -> {
+            attempts.incrementAndGet();
+            throw new ApiException(code, "failed with " + code);
+        };
+    }
+}
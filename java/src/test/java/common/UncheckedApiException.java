@@ -0,0 +1,17 @@
+package common;
+
+import com.piiano.vault.client.openapi.ApiException;
+
+// UncheckedApiException wraps an ApiException where a checked exception cannot be thrown,
+// e.g. from an Iterator or a Stream, like UncheckedIOException wraps an IOException.
+public class UncheckedApiException extends RuntimeException {
+
+    public UncheckedApiException(ApiException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized ApiException getCause() {
+        return (ApiException) super.getCause();
+    }
+}
@@ -0,0 +1,127 @@
+package common;
+
+import com.piiano.vault.client.openapi.ApiClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.apache.connector.ApacheHttpClientBuilderConfigurator;
+import org.glassfish.jersey.client.ClientConfig;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// VaultClientFactory creates independent ApiClients.
+// Configuration.getDefaultApiClient() returns a single global client that uses the JDK
+// HttpURLConnection transport, which keeps only a few idle connections per host. Each
+// client created by this factory has its own pool of keep-alive connections instead, so
+// concurrent calls do not queue on a few sockets, idle connections are evicted, and
+// closing the client (getHttpClient().close()) releases its connections.
+// The transport is HTTP/1.1. Concurrency comes from the pooled connections.
+public class VaultClientFactory {
+
+    private String basePath = "http://localhost:" + Client.DEFAULT_PVAULT_PORT;
+    private String bearerToken = "pvaultauth";
+    private int maxConnections = 200;
+    private int maxConnectionsPerRoute = 100;
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    private Duration readTimeout = Duration.ofSeconds(30);
+    private Duration connectionRequestTimeout = Duration.ofSeconds(5);
+    private Duration keepAlive = Duration.ofSeconds(60);
+    private Duration maxIdleTime = Duration.ofSeconds(30);
+    private boolean compression = true;
+
+    public VaultClientFactory basePath(String basePath) {
+        this.basePath = basePath;
+        return this;
+    }
+
+    public VaultClientFactory bearerToken(String bearerToken) {
+        this.bearerToken = bearerToken;
+        return this;
+    }
+
+    // The maximum number of pooled connections, in total and to the vault.
+    public VaultClientFactory maxConnections(int maxConnections, int maxConnectionsPerRoute) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        return this;
+    }
+
+    // connectionRequestTimeout is how long a call waits for a pooled connection.
+    public VaultClientFactory timeouts(Duration connectTimeout, Duration readTimeout, Duration connectionRequestTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.connectionRequestTimeout = connectionRequestTimeout;
+        return this;
+    }
+
+    // keepAlive is how long a connection is reused when the vault does not say otherwise.
+    // Connections idle for more than maxIdleTime are closed.
+    public VaultClientFactory keepAlive(Duration keepAlive, Duration maxIdleTime) {
+        this.keepAlive = keepAlive;
+        this.maxIdleTime = maxIdleTime;
+        return this;
+    }
+
+    // Whether to accept gzip compressed responses.
+    public VaultClientFactory compression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    public ApiClient create() {
+        var apiClient = new PooledApiClient(this);
+        apiClient.setBasePath(basePath);
+        apiClient.setBearerToken(bearerToken);
+        apiClient.addDefaultHeader("Content-Type", "application/json");
+        apiClient.setConnectTimeout((int) connectTimeout.toMillis());
+        apiClient.setReadTimeout((int) readTimeout.toMillis());
+        return apiClient;
+    }
+
+    private void configure(ClientConfig clientConfig) {
+        var connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        clientConfig.connectorProvider(new ApacheConnectorProvider());
+        clientConfig.property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager);
+        clientConfig.property(ApacheClientProperties.CONNECTION_MANAGER_SHARED, false);
+        clientConfig.property(ApacheClientProperties.REQUEST_CONFIG, RequestConfig.custom()
+                .setConnectionRequestTimeout((int) connectionRequestTimeout.toMillis())
+                .setContentCompressionEnabled(compression)
+                .build());
+        clientConfig.register((ApacheHttpClientBuilderConfigurator) builder -> {
+            builder.setKeepAliveStrategy((response, context) -> {
+                        var keepAliveFromVault = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                        return keepAliveFromVault > 0 ? keepAliveFromVault : keepAlive.toMillis();
+                    })
+                    .evictExpiredConnections()
+                    .evictIdleConnections(maxIdleTime.toMillis(), TimeUnit.MILLISECONDS);
+            if (!compression) {
+                builder.disableContentCompression();
+            }
+            return builder;
+        });
+    }
+
+    // The ApiClient builds its HTTP client in its constructor, before the fields of a subclass
+    // are set, so the client is built again once the factory is known.
+    private static final class PooledApiClient extends ApiClient {
+        private final VaultClientFactory factory;
+
+        private PooledApiClient(VaultClientFactory factory) {
+            this.factory = factory;
+            setHttpClient(buildHttpClient());
+        }
+
+        @Override
+        protected void performAdditionalClientConfiguration(ClientConfig clientConfig) {
+            if (factory != null) {
+                factory.configure(clientConfig);
+            }
+        }
+    }
+}
@@ -0,0 +1,606 @@
+package embedded;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+// EmbeddedCollection holds the objects and tokens of a collection of the embedded vault.
+// The objects and tokens are kept in concurrent maps with secondary indexes by tag, by
+// object id and by the values of deterministic tokens. No lock is held by reads, and
+// changes lock only what they change, so calls on different objects and tokens run
+// concurrently:
+// - an object id and a unique value are claimed with putIfAbsent, and the values claimed by
+//   an add that fails are released;
+// - a deterministic token is created or reused in a compute() of its key;
+// - the changes of a token are made while holding its monitor;
+// - deleting an object and referencing it from a token hold the stripe of its id, so a
+//   token does not reference an object that was deleted.
+// The indexes reference the tokens, not their ids, so rotating a token only changes the
+// map of the tokens by id. A read that runs with a change may see it partially applied.
+class EmbeddedCollection {
+
+    static final String ID = "id";
+
+    private static final String POINTER = "pointer";
+    private static final String DETERMINISTIC = "deterministic";
+    private static final int OBJECT_STRIPES = 64;
+
+    private final String name;
+    private final Map<String, Object> schema;
+    // Property name to data type name, in the order of the schema.
+    private final Map<String, String> dataTypes = new LinkedHashMap<>();
+    private final Set<String> uniqueProps = new HashSet<>();
+    private final Set<String> requiredProps = new HashSet<>();
+
+    private final Object[] objectStripes = new Object[OBJECT_STRIPES];
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentHashMap<UUID, StoredObject> objects = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, StoredObject> objectsBySequence = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Object, UUID>> uniqueValues = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, StoredToken> tokens = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<StoredToken>> tokensByTag = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, Set<StoredToken>> tokensByObjectId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, StoredToken> deterministicTokens = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    EmbeddedCollection(Map<String, Object> schema) {
+        this.name = (String) schema.get("name");
+        this.schema = schema;
+        if (name == null || name.isEmpty()) {
+            throw VaultError.badRequest("collection name is required");
+        }
+
+        var properties = (List<Map<String, Object>>) schema.getOrDefault("properties", List.of());
+        for (var property : properties) {
+            var propertyName = (String) property.get("name");
+            var dataType = (String) property.get("data_type_name");
+            if (propertyName == null || dataType == null || propertyName.equals(ID)) {
+                throw VaultError.badRequest("invalid property in collection " + name);
+            }
+            dataTypes.put(propertyName, dataType);
+            if (Boolean.TRUE.equals(property.get("is_unique"))) {
+                uniqueProps.add(propertyName);
+                uniqueValues.put(propertyName, new ConcurrentHashMap<>());
+            }
+            if (Boolean.FALSE.equals(property.get("is_nullable"))) {
+                requiredProps.add(propertyName);
+            }
+        }
+        for (int i = 0; i < objectStripes.length; i++) {
+            objectStripes[i] = new Object();
+        }
+    }
+
+    String name() {
+        return name;
+    }
+
+    Map<String, Object> schema() {
+        return schema;
+    }
+
+    // Objects
+
+    // The id of the object may be given with its fields.
+    UUID addObject(Map<String, Object> fields) {
+        var normalized = new LinkedHashMap<String, Object>();
+        UUID id = null;
+        for (var entry : fields.entrySet()) {
+            if (entry.getKey().equals(ID)) {
+                id = parseId(entry.getValue());
+                continue;
+            }
+            var dataType = dataTypes.get(entry.getKey());
+            if (dataType == null) {
+                throw VaultError.badRequest("property " + entry.getKey() + " is not in collection " + name);
+            }
+            normalized.put(entry.getKey(), normalize(dataType, entry.getValue()));
+        }
+        for (var prop : requiredProps) {
+            if (normalized.get(prop) == null) {
+                throw VaultError.badRequest("property " + prop + " is not nullable");
+            }
+        }
+
+        var object = new StoredObject(sequence.incrementAndGet(), id != null ? id : UUID.randomUUID(), normalized);
+        var claimed = new ArrayList<String>(uniqueProps.size());
+        try {
+            for (var prop : uniqueProps) {
+                var value = normalized.get(prop);
+                if (value == null) {
+                    continue;
+                }
+                if (uniqueValues.get(prop).putIfAbsent(value, object.id) != null) {
+                    throw VaultError.conflict("an object with the same " + prop + " already exists");
+                }
+                claimed.add(prop);
+            }
+            if (objects.putIfAbsent(object.id, object) != null) {
+                throw VaultError.conflict("an object with the same id already exists");
+            }
+        } catch (VaultError e) {
+            for (var prop : claimed) {
+                uniqueValues.get(prop).remove(normalized.get(prop), object.id);
+            }
+            throw e;
+        }
+        objectsBySequence.put(object.sequence, object);
+        return object.id;
+    }
+
+    // List the objects with the ids, or all the objects if ids is empty, a page at a time.
+    // The cursor is the sequence number of the last object of the previous page.
+    ObjectsPage listObjects(List<UUID> ids, List<String> props, boolean unsafe, Integer pageSize, String cursor) {
+        if (props.isEmpty() && !unsafe) {
+            throw VaultError.badRequest("props are required unless the unsafe option is set");
+        }
+        for (var prop : props) {
+            requireProperty(prop);
+        }
+
+        var results = new ArrayList<Map<String, Object>>();
+        if (!ids.isEmpty()) {
+            for (var id : ids) {
+                var object = objects.get(id);
+                if (object != null) {
+                    results.add(render(object, props));
+                }
+            }
+            return new ObjectsPage(results, 0, "");
+        }
+
+        long after = cursor == null || cursor.isEmpty() ? 0 : decodeCursor(cursor);
+        var remaining = objectsBySequence.tailMap(after, false);
+        int size = pageSize == null || pageSize <= 0 ? Integer.MAX_VALUE : pageSize;
+        long last = after;
+        for (var object : remaining.values()) {
+            if (results.size() == size) {
+                break;
+            }
+            results.add(render(object, props));
+            last = object.sequence;
+        }
+        int remainingCount = remaining.tailMap(last, false).size();
+        return new ObjectsPage(results, remainingCount, encodeCursor(last));
+    }
+
+    // Delete the object and archive the tokens that reference it.
+    void deleteObject(UUID id) {
+        StoredObject object;
+        Set<StoredToken> referencing;
+        synchronized (objectStripe(id)) {
+            object = objects.remove(id);
+            if (object == null) {
+                throw VaultError.notFound("object " + id + " not found in collection " + name);
+            }
+            referencing = tokensByObjectId.remove(id);
+        }
+        objectsBySequence.remove(object.sequence);
+        for (var prop : uniqueProps) {
+            var value = object.fields.get(prop);
+            if (value != null) {
+                uniqueValues.get(prop).remove(value, id);
+            }
+        }
+        if (referencing != null) {
+            for (var token : referencing) {
+                synchronized (token) {
+                    token.objectIds.remove(id);
+                    // A deterministic token may still reference other objects.
+                    if (token.objectIds.isEmpty()) {
+                        token.archived = true;
+                    }
+                }
+            }
+        }
+    }
+
+    // Tokens
+
+    @SuppressWarnings("unchecked")
+    List<String> tokenize(List<Map<String, Object>> requests) {
+        var tokenIds = new ArrayList<String>(requests.size());
+        for (var request : requests) {
+            var type = ((String) request.getOrDefault("type", "")).toLowerCase(Locale.ROOT);
+            var props = (List<String>) request.getOrDefault("props", List.of());
+            var tags = (List<String>) request.getOrDefault("tags", List.of());
+            var input = (Map<String, Object>) request.getOrDefault("object", Map.of());
+            tokenIds.add(tokenize(type, props, tags == null ? List.of() : tags, input));
+        }
+        return tokenIds;
+    }
+
+    List<Map<String, Object>> detokenize(List<String> tokenIds, List<UUID> objectIds, List<String> tags) {
+        var results = new ArrayList<Map<String, Object>>();
+        for (var token : select(tokenIds, objectIds, tags)) {
+            var fields = fieldsOf(token);
+            if (fields == null) {
+                continue;
+            }
+            var result = new LinkedHashMap<String, Object>();
+            result.put("token_id", token.tokenId);
+            result.put("fields", fields);
+            results.add(result);
+        }
+        return results;
+    }
+
+    List<Map<String, Object>> searchTokens(List<String> tokenIds, List<UUID> objectIds, List<String> tags) {
+        var results = new ArrayList<Map<String, Object>>();
+        for (var token : select(tokenIds, objectIds, tags)) {
+            var refs = new ArrayList<Map<String, Object>>(token.objectIds.size());
+            for (var objectId : token.objectIds) {
+                refs.add(Map.of("object_id", objectId.toString()));
+            }
+            var result = new LinkedHashMap<String, Object>();
+            result.put("token_id", token.tokenId);
+            result.put("type", token.type);
+            result.put("tags", token.tags);
+            result.put("tokens", refs);
+            results.add(result);
+        }
+        return results;
+    }
+
+    // Replace the tags of the tokens if newTags is not null, and archive them if
+    // expirationSecs is "0".
+    void updateTokens(List<String> tokenIds, List<UUID> objectIds, List<String> tags,
+                      List<String> newTags, String expirationSecs) {
+        for (var token : select(tokenIds, objectIds, tags)) {
+            synchronized (token) {
+                if (token.deleted) {
+                    continue;
+                }
+                if (newTags != null) {
+                    unindexTags(token);
+                    token.tags = List.copyOf(newTags);
+                    indexTags(token);
+                }
+                if ("0".equals(expirationSecs)) {
+                    token.archived = true;
+                }
+            }
+        }
+    }
+
+    Map<String, String> rotateTokens(List<String> tokenIds) {
+        var rotated = new LinkedHashMap<String, String>();
+        for (var tokenId : tokenIds) {
+            var token = tokens.get(tokenId);
+            if (token == null) {
+                continue;
+            }
+            synchronized (token) {
+                // The token was rotated or deleted since it was looked up.
+                if (!tokens.remove(tokenId, token)) {
+                    continue;
+                }
+                token.tokenId = newTokenId();
+                tokens.put(token.tokenId, token);
+            }
+            rotated.put(tokenId, token.tokenId);
+        }
+        return rotated;
+    }
+
+    void deleteTokens(List<String> tokenIds, List<UUID> objectIds, List<String> tags) {
+        for (var token : select(tokenIds, objectIds, tags)) {
+            synchronized (token) {
+                if (token.deleted) {
+                    continue;
+                }
+                token.deleted = true;
+                tokens.remove(token.tokenId, token);
+                unindex(token);
+            }
+        }
+    }
+
+    private String tokenize(String type, List<String> props, List<String> tags, Map<String, Object> input) {
+        if (!List.of(POINTER, "randomized", "pci", DETERMINISTIC).contains(type)) {
+            throw VaultError.badRequest("unsupported token type " + type);
+        }
+        if (props == null || props.isEmpty()) {
+            throw VaultError.badRequest("props are required");
+        }
+        for (var prop : props) {
+            requireProperty(prop);
+        }
+
+        if (input.get(ID) == null) {
+            @SuppressWarnings("unchecked")
+            var fields = (Map<String, Object>) input.get("fields");
+            if (fields == null) {
+                throw VaultError.badRequest("either the object id or the object fields are required");
+            }
+            if (type.equals(POINTER)) {
+                throw VaultError.badRequest("pointer tokens require an object id");
+            }
+            var values = new LinkedHashMap<String, Object>();
+            for (var prop : props) {
+                values.put(prop, normalize(dataTypes.get(prop), fields.get(prop)));
+            }
+            return tokenize(type, props, tags, values, null);
+        }
+
+        // The object is not deleted while a token references it.
+        var objectId = UUID.fromString(input.get(ID).toString());
+        synchronized (objectStripe(objectId)) {
+            var object = objects.get(objectId);
+            if (object == null) {
+                throw VaultError.notFound("object " + objectId + " not found in collection " + name);
+            }
+            return tokenize(type, props, tags, render(object, props), objectId);
+        }
+    }
+
+    private String tokenize(String type, List<String> props, List<String> tags, Map<String, Object> values,
+                            UUID objectId) {
+        if (type.equals(DETERMINISTIC)) {
+            var key = props + "=" + values;
+            // The same values get the same token, also when they are tokenized concurrently.
+            var token = deterministicTokens.compute(key, (k, existing) -> {
+                if (existing != null && !existing.archived && !existing.deleted) {
+                    if (objectId != null) {
+                        reference(existing, objectId);
+                    }
+                    return existing;
+                }
+                var created = new StoredToken(newTokenId(), type, props, List.copyOf(tags), values, objectId);
+                created.deterministicKey = key;
+                index(created);
+                return created;
+            });
+            return token.tokenId;
+        }
+
+        // Pointer tokens read the current values of the object, other tokens keep a copy.
+        var token = new StoredToken(newTokenId(), type, props, List.copyOf(tags),
+                type.equals(POINTER) ? null : values, objectId);
+        index(token);
+        return token.tokenId;
+    }
+
+    private void reference(StoredToken token, UUID objectId) {
+        synchronized (token) {
+            if (!token.objectIds.contains(objectId)) {
+                token.objectIds.add(objectId);
+                tokensByObjectId.computeIfAbsent(objectId, id -> ConcurrentHashMap.newKeySet()).add(token);
+            }
+        }
+    }
+
+    // The tokens matching all the given criteria. At least one criterion is required.
+    private List<StoredToken> select(List<String> tokenIds, List<UUID> objectIds, List<String> tags) {
+        var candidates = new LinkedHashSet<StoredToken>();
+        if (!tokenIds.isEmpty()) {
+            for (var tokenId : tokenIds) {
+                var token = tokens.get(tokenId);
+                if (token != null) {
+                    candidates.add(token);
+                }
+            }
+        } else if (!objectIds.isEmpty()) {
+            for (var objectId : objectIds) {
+                candidates.addAll(tokensByObjectId.getOrDefault(objectId, Set.of()));
+            }
+        } else if (!tags.isEmpty()) {
+            for (var tag : tags) {
+                candidates.addAll(tokensByTag.getOrDefault(tag, Set.of()));
+            }
+        } else {
+            throw VaultError.badRequest("token ids, object ids or tags are required");
+        }
+
+        var selected = new ArrayList<StoredToken>();
+        for (var token : candidates) {
+            if (token.archived || token.deleted) {
+                continue;
+            }
+            if (!objectIds.isEmpty() && Collections.disjoint(token.objectIds, objectIds)) {
+                continue;
+            }
+            if (!tags.isEmpty() && Collections.disjoint(token.tags, tags)) {
+                continue;
+            }
+            selected.add(token);
+        }
+        selected.sort(Comparator.comparingLong(token -> token.sequence));
+        return selected;
+    }
+
+    private Map<String, Object> fieldsOf(StoredToken token) {
+        if (token.values != null) {
+            return token.values;
+        }
+        for (var objectId : token.objectIds) {
+            var object = objects.get(objectId);
+            if (object != null) {
+                return render(object, token.props);
+            }
+        }
+        return null;
+    }
+
+    // The props of the object, all of them if props is empty. A prop may be a transformation
+    // of a property, e.g. "ssn.mask".
+    private Map<String, Object> render(StoredObject object, List<String> props) {
+        var rendered = new LinkedHashMap<String, Object>();
+        if (props.isEmpty()) {
+            rendered.put(ID, object.id.toString());
+            rendered.putAll(object.fields);
+            return rendered;
+        }
+        for (var prop : props) {
+            if (prop.equals(ID)) {
+                rendered.put(ID, object.id.toString());
+                continue;
+            }
+            int dot = prop.indexOf('.');
+            if (dot < 0) {
+                rendered.put(prop, object.fields.get(prop));
+            } else {
+                var property = prop.substring(0, dot);
+                rendered.put(prop, transform(dataTypes.get(property), prop.substring(dot + 1),
+                        object.fields.get(property)));
+            }
+        }
+        return rendered;
+    }
+
+    private void requireProperty(String prop) {
+        int dot = prop.indexOf('.');
+        var property = dot < 0 ? prop : prop.substring(0, dot);
+        if (!property.equals(ID) && !dataTypes.containsKey(property)) {
+            throw VaultError.badRequest("property " + property + " is not in collection " + name);
+        }
+        if (dot >= 0 && !prop.substring(dot + 1).equals("mask")) {
+            throw VaultError.badRequest("unsupported transformation " + prop);
+        }
+    }
+
+    private static Object normalize(String dataType, Object value) {
+        if (value instanceof String && "PHONE_NUMBER".equals(dataType)) {
+            return ((String) value).replaceAll("[\\s()-]", "");
+        }
+        return value;
+    }
+
+    private static Object transform(String dataType, String transformation, Object value) {
+        if (value == null || !transformation.equals("mask")) {
+            return null;
+        }
+        var plaintext = value.toString();
+        switch (dataType) {
+            case "SSN":
+                return "***-**-" + plaintext.substring(Math.max(0, plaintext.length() - 4));
+            case "EMAIL":
+                int at = plaintext.indexOf('@');
+                return at <= 0 ? plaintext : plaintext.charAt(0) + "***" + plaintext.substring(at);
+            case "PHONE_NUMBER":
+                return maskAllButLast(plaintext, 4);
+            case "ZIP_CODE_US":
+                return plaintext.length() <= 3 ? plaintext : plaintext.substring(0, 3) + "*".repeat(plaintext.length() - 3);
+            default:
+                return maskAllButLast(plaintext, 0);
+        }
+    }
+
+    private static String maskAllButLast(String plaintext, int visible) {
+        int masked = Math.max(0, plaintext.length() - visible);
+        return "*".repeat(masked) + plaintext.substring(masked);
+    }
+
+    // Index a new token. A deterministic token is indexed by its key by the caller.
+    private void index(StoredToken token) {
+        indexTags(token);
+        for (var objectId : token.objectIds) {
+            tokensByObjectId.computeIfAbsent(objectId, id -> ConcurrentHashMap.newKeySet()).add(token);
+        }
+        tokens.put(token.tokenId, token);
+    }
+
+    // Called while holding the monitor of the token.
+    private void unindex(StoredToken token) {
+        unindexTags(token);
+        for (var objectId : token.objectIds) {
+            var referencing = tokensByObjectId.get(objectId);
+            if (referencing != null) {
+                referencing.remove(token);
+            }
+        }
+        if (token.deterministicKey != null) {
+            deterministicTokens.remove(token.deterministicKey, token);
+        }
+    }
+
+    private void indexTags(StoredToken token) {
+        for (var tag : token.tags) {
+            tokensByTag.computeIfAbsent(tag, t -> ConcurrentHashMap.newKeySet()).add(token);
+        }
+    }
+
+    private void unindexTags(StoredToken token) {
+        for (var tag : token.tags) {
+            var tagged = tokensByTag.get(tag);
+            if (tagged != null) {
+                tagged.remove(token);
+            }
+        }
+    }
+
+    private Object objectStripe(UUID objectId) {
+        return objectStripes[(objectId.hashCode() & Integer.MAX_VALUE) % objectStripes.length];
+    }
+
+    private static UUID parseId(Object id) {
+        if (id == null) {
+            return null;
+        }
+        try {
+            return UUID.fromString(id.toString());
+        } catch (IllegalArgumentException e) {
+            throw VaultError.badRequest("invalid object id " + id);
+        }
+    }
+
+    private static String newTokenId() {
+        return UUID.randomUUID().toString();
+    }
+
+    private static String encodeCursor(long sequence) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                Long.toString(sequence).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long decodeCursor(String cursor) {
+        try {
+            return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw VaultError.badRequest("invalid cursor");
+        }
+    }
+
+    record ObjectsPage(List<Map<String, Object>> results, int remainingCount, String cursor) {
+    }
+
+    private static final class StoredObject {
+        private final long sequence;
+        private final UUID id;
+        private final Map<String, Object> fields;
+
+        private StoredObject(long sequence, UUID id, Map<String, Object> fields) {
+            this.sequence = sequence;
+            this.id = id;
+            this.fields = fields;
+        }
+    }
+
+    private final class StoredToken {
+        private final long sequence = EmbeddedCollection.this.sequence.incrementAndGet();
+        private final String type;
+        private final List<String> props;
+        private final Map<String, Object> values;
+        private final List<UUID> objectIds = new CopyOnWriteArrayList<>();
+        private volatile String tokenId;
+        private volatile List<String> tags;
+        private String deterministicKey;
+        private volatile boolean archived;
+        private volatile boolean deleted;
+
+        private StoredToken(String tokenId, String type, List<String> props, List<String> tags,
+                            Map<String, Object> values, UUID objectId) {
+            this.tokenId = tokenId;
+            this.type = type;
+            this.props = List.copyOf(props);
+            this.tags = tags;
+            this.values = values;
+            if (objectId != null) {
+                objectIds.add(objectId);
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package embedded;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import common.DaemonThreads;
+
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+// EmbeddedVault is an in-process, in-memory stand-in for the vault.
+// It serves the collections, objects and tokens endpoints used by CollectionsClient,
+// ObjectsClient and TokensClient over HTTP on the loopback interface, so the clients and
+// the tests run unchanged, offline and without the cost of a real vault. It starts in
+// milliseconds and can also be used as a load test target.
+// It keeps everything in memory, does not encrypt or authenticate, and implements the
+// "mask" transformation only.
+public class EmbeddedVault implements AutoCloseable {
+
+    private static final String API_PREFIX = "/api/pvlt/1.0/";
+    private static final TypeReference<Map<String, Object>> OBJECT = new TypeReference<>() {
+    };
+    private static final TypeReference<List<Map<String, Object>>> LIST_OF_OBJECTS = new TypeReference<>() {
+    };
+    private static EmbeddedVault shared;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, EmbeddedCollection> collections = new ConcurrentHashMap<>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private EmbeddedVault(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+        executor = Executors.newFixedThreadPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()),
+                DaemonThreads.named("embedded-vault"));
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    // Start a vault on an ephemeral port.
+    public static EmbeddedVault start() throws IOException {
+        return new EmbeddedVault(0);
+    }
+
+    // The vault shared by all the tests of this JVM, started on first use.
+    public static synchronized EmbeddedVault shared() {
+        if (shared == null) {
+            try {
+                shared = start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return shared;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            try {
+                var response = route(exchange);
+                reply(exchange, Response.Status.OK, response);
+            } catch (VaultError e) {
+                reply(exchange, e.status, error(e.errorCode, e.getMessage()));
+            } catch (IllegalArgumentException | ClassCastException | JsonProcessingException e) {
+                reply(exchange, Response.Status.BAD_REQUEST, error("bad_request", e.getMessage()));
+            } catch (RuntimeException e) {
+                reply(exchange, Response.Status.INTERNAL_SERVER_ERROR, error("internal_error", e.toString()));
+            }
+        }
+    }
+
+    // Returns the response body, or null for an empty response.
+    private Object route(HttpExchange exchange) throws IOException {
+        var path = exchange.getRequestURI().getRawPath();
+        if (!path.startsWith(API_PREFIX)) {
+            throw VaultError.notFound("unknown path " + path);
+        }
+        var segments = path.substring(API_PREFIX.length()).split("/");
+        var method = exchange.getRequestMethod();
+        var query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+        // ctl/info/health, data/info/health
+        if (segments.length == 3 && segments[1].equals("info") && segments[2].equals("health")) {
+            return Map.of("status", "pass");
+        }
+        if (segments.length < 2 || !segments[1].equals("collections")) {
+            throw VaultError.notFound("unknown path " + path);
+        }
+
+        if (segments[0].equals("ctl")) {
+            return routeCollections(exchange, method, segments);
+        }
+        if (segments[0].equals("data") && segments.length >= 4) {
+            var collection = collection(decode(segments[2]));
+            var resource = segments[3];
+            if (resource.equals("objects")) {
+                return routeObjects(exchange, method, segments, query, collection);
+            }
+            if (resource.equals("tokens")) {
+                return routeTokens(exchange, method, segments, query, collection);
+            }
+        }
+        throw VaultError.notFound("unknown path " + path);
+    }
+
+    private Object routeCollections(HttpExchange exchange, String method, String[] segments) throws IOException {
+        // ctl/collections
+        if (segments.length == 2) {
+            if (method.equals("POST")) {
+                var collection = new EmbeddedCollection(readBody(exchange, OBJECT));
+                if (collections.putIfAbsent(collection.name(), collection) != null) {
+                    throw VaultError.conflict("collection " + collection.name() + " already exists");
+                }
+                return collection.schema();
+            }
+            if (method.equals("GET")) {
+                return collections.values().stream().map(EmbeddedCollection::schema).collect(Collectors.toList());
+            }
+        }
+        // ctl/collections/{collection}[/properties]
+        if (segments.length == 3 || (segments.length == 4 && segments[3].equals("properties"))) {
+            var name = decode(segments[2]);
+            if (method.equals("DELETE") && segments.length == 3) {
+                if (collections.remove(name) == null) {
+                    throw VaultError.notFound("collection " + name + " not found");
+                }
+                return null;
+            }
+            if (method.equals("GET")) {
+                var schema = collection(name).schema();
+                return segments.length == 3 ? schema : schema.getOrDefault("properties", List.of());
+            }
+        }
+        throw VaultError.notFound("unknown path " + String.join("/", segments));
+    }
+
+    private Object routeObjects(HttpExchange exchange, String method, String[] segments,
+                                Map<String, List<String>> query, EmbeddedCollection collection) throws IOException {
+        // data/collections/{collection}/objects
+        if (segments.length == 4) {
+            if (method.equals("POST")) {
+                return Map.of("id", collection.addObject(readBody(exchange, OBJECT)).toString());
+            }
+            if (method.equals("GET")) {
+                var pageSize = query.getOrDefault("page_size", List.of());
+                var cursor = query.getOrDefault("cursor", List.of());
+                var page = collection.listObjects(
+                        uuids(query, "ids"),
+                        values(query, "props"),
+                        values(query, "options").contains("unsafe"),
+                        pageSize.isEmpty() || pageSize.get(0).isEmpty() ? null : Integer.valueOf(pageSize.get(0)),
+                        cursor.isEmpty() ? null : cursor.get(0));
+
+                var paging = new LinkedHashMap<String, Object>();
+                paging.put("size", page.results().size());
+                paging.put("remaining_count", page.remainingCount());
+                paging.put("cursor", page.cursor());
+                var response = new LinkedHashMap<String, Object>();
+                response.put("results", page.results());
+                response.put("paging", paging);
+                return response;
+            }
+        }
+        // data/collections/{collection}/objects/{id}
+        if (segments.length == 5 && method.equals("DELETE")) {
+            collection.deleteObject(UUID.fromString(decode(segments[4])));
+            return null;
+        }
+        throw VaultError.notFound("unknown path " + String.join("/", segments));
+    }
+
+    private Object routeTokens(HttpExchange exchange, String method, String[] segments,
+                               Map<String, List<String>> query, EmbeddedCollection collection) throws IOException {
+        var tokenIds = values(query, "token_ids");
+        var objectIds = uuids(query, "object_ids");
+        var tags = values(query, "tags");
+
+        // data/collections/{collection}/tokens
+        if (segments.length == 4) {
+            switch (method) {
+                case "POST":
+                    return collection.tokenize(readBody(exchange, LIST_OF_OBJECTS)).stream()
+                            .map(tokenId -> Map.of("token_id", tokenId))
+                            .collect(Collectors.toList());
+                case "GET":
+                    // The vault rejects detokenize with the archived option, see
+                    // https://github.com/piiano/vault/issues/2047
+                    if (values(query, "options").contains("archived")) {
+                        throw VaultError.badRequest("the archived option is not supported by detokenize");
+                    }
+                    return collection.detokenize(tokenIds, objectIds, tags);
+                case "PATCH":
+                    var update = readBody(exchange, OBJECT);
+                    @SuppressWarnings("unchecked")
+                    var newTags = (List<String>) update.get("tags");
+                    var expiration = query.getOrDefault("expiration_secs", List.of(""));
+                    collection.updateTokens(tokenIds, objectIds, tags, newTags, expiration.get(0));
+                    return null;
+                case "DELETE":
+                    collection.deleteTokens(tokenIds, objectIds, tags);
+                    return null;
+                default:
+                    break;
+            }
+        }
+        // data/collections/{collection}/tokens/query
+        if (segments.length == 5 && segments[4].equals("query") && method.equals("POST")) {
+            var queryToken = readBody(exchange, OBJECT);
+            return collection.searchTokens(
+                    strings(queryToken.get("token_ids")),
+                    strings(queryToken.get("object_ids")).stream().map(UUID::fromString).collect(Collectors.toList()),
+                    strings(queryToken.get("tags")));
+        }
+        // data/collections/{collection}/tokens/rotate
+        if (segments.length == 5 && segments[4].equals("rotate") && method.equals("POST")) {
+            return collection.rotateTokens(tokenIds);
+        }
+        throw VaultError.notFound("unknown path " + String.join("/", segments));
+    }
+
+    private EmbeddedCollection collection(String name) {
+        var collection = collections.get(name);
+        if (collection == null) {
+            throw VaultError.notFound("collection " + name + " not found");
+        }
+        return collection;
+    }
+
+    private <T> T readBody(HttpExchange exchange, TypeReference<T> type) throws IOException {
+        var body = exchange.getRequestBody().readAllBytes();
+        if (body.length == 0) {
+            throw VaultError.badRequest("request body is required");
+        }
+        return mapper.readValue(body, type);
+    }
+
+    private void reply(HttpExchange exchange, Response.Status status, Object body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status.getStatusCode(), -1);
+            return;
+        }
+        var bytes = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status.getStatusCode(), bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static Map<String, Object> error(String errorCode, String message) {
+        var error = new LinkedHashMap<String, Object>();
+        error.put("error_code", errorCode);
+        error.put("error_url", "");
+        error.put("message", message);
+        error.put("context", Map.of());
+        return error;
+    }
+
+    // Query parameters may be repeated and may hold comma separated values.
+    private static Map<String, List<String>> parseQuery(String rawQuery) {
+        var query = new HashMap<String, List<String>>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (var parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            var key = decode(equals < 0 ? parameter : parameter.substring(0, equals));
+            var value = equals < 0 ? "" : decode(parameter.substring(equals + 1));
+            query.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }
+        return query;
+    }
+
+    private static List<String> values(Map<String, List<String>> query, String key) {
+        var values = new ArrayList<String>();
+        for (var value : query.getOrDefault(key, List.of())) {
+            for (var item : value.split(",")) {
+                if (!item.isEmpty()) {
+                    values.add(item);
+                }
+            }
+        }
+        return values;
+    }
+
+    private static List<UUID> uuids(Map<String, List<String>> query, String key) {
+        return values(query, key).stream().map(UUID::fromString).collect(Collectors.toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> strings(Object value) {
+        return value == null ? List.of() : (List<String>) value;
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
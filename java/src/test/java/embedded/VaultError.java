@@ -0,0 +1,28 @@
+package embedded;
+
+import javax.ws.rs.core.Response;
+
+// VaultError is thrown by the embedded vault to reply with an error.
+// It is serialized like the errors of the vault, so ApiError.fromException can parse it.
+class VaultError extends RuntimeException {
+    final Response.Status status;
+    final String errorCode;
+
+    VaultError(Response.Status status, String errorCode, String message) {
+        super(message);
+        this.status = status;
+        this.errorCode = errorCode;
+    }
+
+    static VaultError badRequest(String message) {
+        return new VaultError(Response.Status.BAD_REQUEST, "bad_request", message);
+    }
+
+    static VaultError notFound(String message) {
+        return new VaultError(Response.Status.NOT_FOUND, "not_found", message);
+    }
+
+    static VaultError conflict(String message) {
+        return new VaultError(Response.Status.CONFLICT, "conflict", message);
+    }
+}
@@ -0,0 +1,181 @@
+package limits;
+
+import com.piiano.vault.client.openapi.ApiException;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// AdaptiveConcurrencyLimiter limits the number of concurrent calls to the vault to a limit
+// that follows the latency of the calls (AIMD, with a Vegas-like latency signal):
+// - while the smoothed latency is below tolerance times the lowest latency observed and the
+//   limit is used, the limit grows by one;
+// - when the smoothed latency exceeds it, or the vault sheds the call, the limit shrinks by
+//   backoffRatio.
+// The limit changes at most once per round trip: only a call sent after the last change
+// can change it again, so a burst of slow responses to calls sent together counts once.
+// The lowest latency is measured again every PROBE_INTERVAL, to follow a vault whose baseline
+// latency changed. Like the ProbeRTT phase of BBR, the probe lowers the limit for a round
+// trip, so the queue in the vault drains, and measures the calls sent after it. The limit is
+// restored when the first of them completes. At the steady state the limit is up to tolerance
+// times what the vault serves without queuing, so the probe lowers it below that share, to
+// limit / (2 * tolerance). Measuring the latency at the current load would raise it at every
+// probe, since under a steady overload the latency never gets back to the baseline.
+// Acquiring and releasing use compare-and-set only. A caller that has to wait polls with
+// a short park instead of queuing on a lock.
+public class AdaptiveConcurrencyLimiter {
+
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    public static final int DEFAULT_MIN_LIMIT = 2;
+    public static final int DEFAULT_MAX_LIMIT = 200;
+    public static final double DEFAULT_TOLERANCE = 2.0;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    public static final double DEFAULT_BULK_SHARE = 0.5;
+
+    static final long PROBE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // The weight of a call in the smoothed latency is 1 / SMOOTHING.
+    private static final int SMOOTHING = 16;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoffRatio;
+    private final double bulkShare;
+    private final AtomicInteger limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong minLatencyNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong smoothedLatencyNanos = new AtomicLong();
+    // System.nanoTime() of the last change of the limit, and of the last probe.
+    private final AtomicLong lastChangeNanos = new AtomicLong(System.nanoTime());
+    private final AtomicLong probeStartNanos = new AtomicLong(lastChangeNanos.get());
+    // The limit before the last probe, 0 once it was restored.
+    private final AtomicInteger limitBeforeProbe = new AtomicInteger();
+
+    public AdaptiveConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_TOLERANCE, DEFAULT_BACKOFF_RATIO,
+                DEFAULT_BULK_SHARE);
+    }
+
+    // bulkShare is the share of the limit that bulk callers may use.
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                      double tolerance, double backoffRatio, double bulkShare) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("limits must satisfy 1 <= min <= initial <= max");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+        this.bulkShare = bulkShare;
+        this.limit = new AtomicInteger(initialLimit);
+    }
+
+    public int limit() {
+        return limit.get();
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public boolean tryAcquire(Lane lane) {
+        int laneLimit = laneLimit(lane);
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= laneLimit) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    // Wait for a permit. If there is none within maxWait a 429 ApiException is thrown.
+    public void acquire(Lane lane, Duration maxWait) throws ApiException {
+        if (tryAcquire(lane)) {
+            return;
+        }
+        long deadline = System.nanoTime() + maxWait.toNanos();
+        long parkNanos = MIN_PARK_NANOS;
+        while (!tryAcquire(lane)) {
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new ApiException(new InterruptedException());
+            }
+            if (System.nanoTime() - deadline > 0) {
+                throw new ApiException(Response.Status.TOO_MANY_REQUESTS.getStatusCode(),
+                        "the concurrency limit of " + laneLimit(lane) + " " + lane + " calls was reached");
+            }
+            LockSupport.parkNanos(parkNanos);
+            // Interactive callers keep polling often, bulk callers back off.
+            if (lane == Lane.BULK) {
+                parkNanos = Math.min(MAX_PARK_NANOS, parkNanos * 2);
+            }
+        }
+    }
+
+    // Release the permit of a call that took latencyNanos. dropped is true when the vault
+    // shed the call because it is overloaded.
+    public void release(long latencyNanos, boolean dropped) {
+        release(latencyNanos, dropped, System.nanoTime());
+    }
+
+    // release at nowNanos, a value of System.nanoTime().
+    void release(long latencyNanos, boolean dropped, long nowNanos) {
+        int inFlightBefore = inFlight.getAndDecrement();
+
+        long smoothedLatency = smoothedLatencyNanos.accumulateAndGet(latencyNanos,
+                (smoothed, latency) -> smoothed == 0 ? latency : smoothed + (latency - smoothed) / SMOOTHING);
+
+        long probeStart = probeStartNanos.get();
+        if (nowNanos - probeStart >= PROBE_INTERVAL_NANOS && limitBeforeProbe.get() == 0
+                && probeStartNanos.compareAndSet(probeStart, nowNanos)) {
+            lastChangeNanos.set(nowNanos);
+            minLatencyNanos.set(Long.MAX_VALUE);
+            limitBeforeProbe.set(limit.getAndUpdate(
+                    current -> Math.max(minLimit, (int) (current / (2 * tolerance)))));
+            return;
+        }
+        long sentAt = nowNanos - latencyNanos;
+        long minLatency;
+        if (sentAt - probeStartNanos.get() >= 0) {
+            minLatency = minLatencyNanos.accumulateAndGet(latencyNanos, Math::min);
+            int restored = limitBeforeProbe.getAndSet(0);
+            if (restored > 0) {
+                limit.accumulateAndGet(restored, Math::max);
+            }
+        } else {
+            minLatency = minLatencyNanos.get();
+        }
+        if (minLatency == Long.MAX_VALUE) {
+            // No call sent after the probe completed yet.
+            return;
+        }
+
+        // A smoothed latency that is still high after the latency dropped is not a signal.
+        long threshold = (long) (tolerance * minLatency);
+        boolean decrease = dropped || (smoothedLatency > threshold && latencyNanos > threshold);
+        if (!decrease && inFlightBefore * 2 < limit.get()) {
+            return;
+        }
+        long lastChange = lastChangeNanos.get();
+        if (sentAt - lastChange < 0 || !lastChangeNanos.compareAndSet(lastChange, nowNanos)) {
+            return;
+        }
+        if (decrease) {
+            limit.updateAndGet(current -> Math.max(minLimit, (int) (current * backoffRatio)));
+        } else {
+            limit.updateAndGet(current -> Math.min(maxLimit, current + 1));
+        }
+    }
+
+    private int laneLimit(Lane lane) {
+        int current = limit.get();
+        return lane == Lane.BULK ? Math.max(1, (int) (current * bulkShare)) : current;
+    }
+}
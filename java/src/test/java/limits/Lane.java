@@ -0,0 +1,10 @@
+package limits;
+
+// Lane is the priority of a caller of the vault.
+// Interactive callers, such as online requests, may use the whole concurrency limit.
+// Bulk callers, such as batch jobs, may use only a share of it, so they cannot starve
+// interactive callers.
+public enum Lane {
+    INTERACTIVE,
+    BULK
+}
@@ -0,0 +1,109 @@
+package limits;
+
+import com.piiano.vault.client.openapi.ApiException;
+import common.ApiCall;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// The calls of these tests do not reach a vault. The limiter is released at simulated
+// times, so the tests do not depend on the speed of the machine.
+public class TestAdaptiveConcurrencyLimiter {
+
+    private static final long BASE_LATENCY_NANOS = 1_000_000;
+
+    @Test
+    public void limitConvergesToTheCapacityOfTheVault() {
+        for (int capacity : new int[]{10, 40}) {
+            var limiter = new AdaptiveConcurrencyLimiter(20, 2, 200, 2.0, 0.9, 0.5);
+            long now = System.nanoTime();
+            long measuredFrom = 0;
+            int max = 0;
+            int lowRounds = 0;
+            for (int round = 0; round < 30000; round++) {
+                // Send as many calls as the limit allows, together, and release them together.
+                // Calls beyond the capacity queue in the vault.
+                int calls = 0;
+                while (limiter.tryAcquire(Lane.INTERACTIVE)) {
+                    calls++;
+                }
+                long latency = calls <= capacity ? BASE_LATENCY_NANOS : BASE_LATENCY_NANOS * calls / capacity;
+                now += latency;
+                for (int i = 0; i < calls; i++) {
+                    limiter.release(latency, false, now);
+                }
+                if (round == 10000) {
+                    measuredFrom = now;
+                } else if (round > 10000) {
+                    max = Math.max(max, limiter.limit());
+                    lowRounds += limiter.limit() < capacity ? 1 : 0;
+                }
+            }
+            // The latency reaches tolerance times the lowest one at twice the capacity. The
+            // limit goes under the capacity only during the round trip of a probe.
+            long probes = (now - measuredFrom) / AdaptiveConcurrencyLimiter.PROBE_INTERVAL_NANOS + 1;
+            Assertions.assertTrue(max <= 2.5 * capacity, "capacity " + capacity + " max limit " + max);
+            Assertions.assertTrue(lowRounds <= probes,
+                    "capacity " + capacity + " rounds under it " + lowRounds + " probes " + probes);
+            Assertions.assertEquals(0, limiter.inFlight());
+        }
+    }
+
+    @Test
+    public void slowResponsesToCallsSentTogetherDecreaseTheLimitOnce() {
+        var limiter = new AdaptiveConcurrencyLimiter(100, 2, 200, 2.0, 0.9, 0.5);
+        long now = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            Assertions.assertTrue(limiter.tryAcquire(Lane.INTERACTIVE));
+        }
+        now += BASE_LATENCY_NANOS;
+        limiter.release(BASE_LATENCY_NANOS, false, now);
+
+        long slowLatency = 10 * BASE_LATENCY_NANOS;
+        now += slowLatency;
+        for (int i = 0; i < 49; i++) {
+            limiter.release(slowLatency, i % 2 == 0, now);
+        }
+        Assertions.assertEquals(90, limiter.limit());
+    }
+
+    @Test
+    public void onlyCallsShedByTheVaultDecreaseTheLimit() {
+        var concurrencyLimiter = new AdaptiveConcurrencyLimiter(20, 2, 200, 2.0, 0.9, 0.5);
+        var limiter = new VaultLimiter(concurrencyLimiter, Duration.ofMillis(10));
+        // No response and failed gateways say nothing about the load of the vault, a 503 does.
+        for (int code : new int[]{0, 502, 504, 503}) {
+            ApiCall<Boolean> failing = () -> {
+                throw new ApiException(code, "failed with " + code);
+            };
+            var failure = Assertions.assertThrows(ApiException.class,
+                    () -> limiter.call("tokenize", Lane.INTERACTIVE, 1, failing));
+            Assertions.assertEquals(code, failure.getCode());
+            Assertions.assertEquals(code == 503 ? 18 : 20, concurrencyLimiter.limit());
+        }
+    }
+
+    @Test
+    public void ratePermitsAreReturnedWhenNoConcurrencyPermitIsAvailable() throws ApiException {
+        var concurrencyLimiter = new AdaptiveConcurrencyLimiter(2, 2, 2, 2.0, 0.9, 0.5);
+        var limiter = new VaultLimiter(concurrencyLimiter, Duration.ofMillis(10))
+                .rateLimit("tokenize", Lane.INTERACTIVE, 0.001, 10);
+        Assertions.assertTrue(concurrencyLimiter.tryAcquire(Lane.INTERACTIVE));
+        Assertions.assertTrue(concurrencyLimiter.tryAcquire(Lane.INTERACTIVE));
+
+        var called = new AtomicBoolean();
+        for (int i = 0; i < 3; i++) {
+            var rejected = Assertions.assertThrows(ApiException.class,
+                    () -> limiter.call("tokenize", Lane.INTERACTIVE, 5, () -> called.getAndSet(true)));
+            Assertions.assertEquals(429, rejected.getCode());
+        }
+        Assertions.assertFalse(called.get());
+
+        // The rejected calls did not use the burst of the bucket.
+        concurrencyLimiter.release(BASE_LATENCY_NANOS, false);
+        Assertions.assertFalse(limiter.call("tokenize", Lane.INTERACTIVE, 10, () -> called.getAndSet(true)));
+        Assertions.assertTrue(called.get());
+    }
+}
@@ -0,0 +1,75 @@
+package limits;
+
+import com.piiano.vault.client.openapi.ApiException;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// TokenBucket limits a rate of permits, allowing bursts of up to burst permits.
+// It is implemented as a generic cell rate algorithm: the state is the time at which the
+// bucket will be full again, kept in an AtomicLong and updated with compare-and-set, so
+// acquiring permits never takes a lock.
+public class TokenBucket {
+
+    private final long nanosPerPermit;
+    private final long burstNanos;
+    private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("rate and burst must be positive");
+        }
+        this.nanosPerPermit = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstNanos = burst * nanosPerPermit;
+    }
+
+    // Take the permits if they are available now.
+    public boolean tryAcquire(long permits) {
+        while (true) {
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + permits * nanosPerPermit;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    // Return permits that were acquired but not used.
+    public void release(long permits) {
+        fullAt.addAndGet(-permits * nanosPerPermit);
+    }
+
+    // Reserve the permits and wait until they are available. If they are not available
+    // within maxWait nothing is reserved and a 429 ApiException is thrown.
+    public void acquire(long permits, Duration maxWait) throws ApiException {
+        long maxWaitNanos = maxWait.toNanos();
+        long waitNanos;
+        while (true) {
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + permits * nanosPerPermit;
+            waitNanos = next - now - burstNanos;
+            if (waitNanos > maxWaitNanos) {
+                throw new ApiException(Response.Status.TOO_MANY_REQUESTS.getStatusCode(),
+                        "the rate limit would be exceeded for " + Duration.ofNanos(waitNanos));
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                break;
+            }
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ApiException(e);
+            }
+        }
+    }
+}
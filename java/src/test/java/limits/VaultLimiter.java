@@ -0,0 +1,82 @@
+package limits;
+
+import com.piiano.vault.client.openapi.ApiException;
+import common.ApiCall;
+import common.ResilientExecutor;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// VaultLimiter paces the vault calls of the clients, so that bulk callers do not starve
+// interactive ones on the same vault.
+// Each call first takes permits from the token bucket of its operation and lane, when a
+// rate limit is set, then a permit of the shared AdaptiveConcurrencyLimiter, which lets
+// bulk callers use only a share of the concurrency.
+// Operations are named like the metrics of the clients, e.g. "tokens.tokenize".
+// Calls that cannot get their permits within maxWait fail with a 429 ApiException.
+public class VaultLimiter {
+
+    public static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(30);
+
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final Duration maxWait;
+    // The token buckets of an operation, indexed by the ordinal of the lane.
+    private final Map<String, TokenBucket[]> rateLimits = new ConcurrentHashMap<>();
+
+    public VaultLimiter() {
+        this(new AdaptiveConcurrencyLimiter(), DEFAULT_MAX_WAIT);
+    }
+
+    public VaultLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter, Duration maxWait) {
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.maxWait = maxWait;
+    }
+
+    public AdaptiveConcurrencyLimiter concurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    // Limit the calls of the operation in the lane to permitsPerSecond permits, with bursts of
+    // up to burst permits. A call takes as many permits as the items it sends, e.g. the number
+    // of tokenize requests.
+    public VaultLimiter rateLimit(String operation, Lane lane, double permitsPerSecond, int burst) {
+        var bucket = new TokenBucket(permitsPerSecond, burst);
+        // The arrays are copied on write, so they are safely published to the calling threads.
+        rateLimits.compute(operation, (name, buckets) -> {
+            var updated = buckets == null ? new TokenBucket[Lane.values().length] : buckets.clone();
+            updated[lane.ordinal()] = bucket;
+            return updated;
+        });
+        return this;
+    }
+
+    public <T> T call(String operation, Lane lane, long permits, ApiCall<T> call) throws ApiException {
+        var buckets = rateLimits.get(operation);
+        var bucket = buckets == null ? null : buckets[lane.ordinal()];
+        long bucketPermits = Math.max(1, permits);
+        if (bucket != null) {
+            bucket.acquire(bucketPermits, maxWait);
+        }
+
+        try {
+            concurrencyLimiter.acquire(lane, maxWait);
+        } catch (ApiException e) {
+            // The call is not made, so its rate permits are given back.
+            if (bucket != null) {
+                bucket.release(bucketPermits);
+            }
+            throw e;
+        }
+        long start = System.nanoTime();
+        boolean dropped = false;
+        try {
+            return call.call();
+        } catch (ApiException e) {
+            dropped = ResilientExecutor.isRejected(e);
+            throw e;
+        } finally {
+            concurrencyLimiter.release(System.nanoTime() - start, dropped);
+        }
+    }
+}
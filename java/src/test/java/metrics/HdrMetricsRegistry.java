@@ -0,0 +1,135 @@
+package metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// HdrMetricsRegistry keeps the measurements of each operation in memory.
+// Latencies and batch sizes are recorded into HdrHistogram Recorders, whose recording path
+// is wait-free; the histograms are only locked by snapshot(), which accumulates what was
+// recorded since the previous snapshot. Byte sizes are only reported as totals, so they are
+// summed exactly in LongAdders.
+public class HdrMetricsRegistry implements MetricsRegistry {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordLatency(String operation, long nanos) {
+        metrics(operation).latency.recordValue(Math.max(0, nanos));
+    }
+
+    @Override
+    public void recordRequestBytes(String operation, long bytes) {
+        metrics(operation).requestBytes.add(Math.max(0, bytes));
+    }
+
+    @Override
+    public void recordResponseBytes(String operation, long bytes) {
+        metrics(operation).responseBytes.add(Math.max(0, bytes));
+    }
+
+    @Override
+    public void recordBatchSize(String operation, long size) {
+        metrics(operation).batchSizes.recordValue(Math.max(0, size));
+    }
+
+    @Override
+    public void recordError(String operation, String errorCode) {
+        metrics(operation).errors.computeIfAbsent(errorCode, code -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void addInFlight(String operation, int delta) {
+        metrics(operation).inFlight.addAndGet(delta);
+    }
+
+    // The statistics of every operation since the registry was created.
+    public Map<String, OperationStats> snapshot() {
+        var snapshot = new TreeMap<String, OperationStats>();
+        operations.forEach((operation, metrics) -> snapshot.put(operation, metrics.snapshot(operation)));
+        return snapshot;
+    }
+
+    public void report(PrintStream out) {
+        out.printf("%-24s %10s %10s %10s %10s %10s %12s %12s %8s %8s%n",
+                "operation", "count", "p50 us", "p99 us", "p99.9 us", "max us",
+                "req bytes", "resp bytes", "batch", "errors");
+        for (var stats : snapshot().values()) {
+            out.printf("%-24s %10d %10.1f %10.1f %10.1f %10.1f %12d %12d %8.1f %8d%n",
+                    stats.operation(), stats.count(),
+                    micros(stats.p50Nanos()), micros(stats.p99Nanos()), micros(stats.p999Nanos()),
+                    micros(stats.maxNanos()), stats.requestBytes(), stats.responseBytes(),
+                    stats.meanBatchSize(), stats.errors().values().stream().mapToLong(Long::longValue).sum());
+        }
+    }
+
+    private OperationMetrics metrics(String operation) {
+        var metrics = operations.get(operation);
+        if (metrics == null) {
+            metrics = operations.computeIfAbsent(operation, name -> new OperationMetrics());
+        }
+        return metrics;
+    }
+
+    private static double micros(long nanos) {
+        return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    // The statistics of an operation. Byte sizes are totals.
+    public record OperationStats(
+            String operation,
+            long count,
+            long p50Nanos,
+            long p99Nanos,
+            long p999Nanos,
+            long maxNanos,
+            long requestBytes,
+            long responseBytes,
+            double meanBatchSize,
+            Map<String, Long> errors,
+            long inFlight) {
+    }
+
+    private static final class OperationMetrics {
+        private final Recorder latency = new Recorder(SIGNIFICANT_DIGITS);
+        private final Recorder batchSizes = new Recorder(SIGNIFICANT_DIGITS);
+        private final LongAdder requestBytes = new LongAdder();
+        private final LongAdder responseBytes = new LongAdder();
+        private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+        private final AtomicLong inFlight = new AtomicLong();
+
+        // Accumulated by snapshot().
+        private final Histogram totalLatency = new Histogram(SIGNIFICANT_DIGITS);
+        private final Histogram totalBatchSizes = new Histogram(SIGNIFICANT_DIGITS);
+
+        private synchronized OperationStats snapshot(String operation) {
+            totalLatency.add(latency.getIntervalHistogram());
+            totalBatchSizes.add(batchSizes.getIntervalHistogram());
+
+            var errorCounts = new TreeMap<String, Long>();
+            errors.forEach((code, count) -> errorCounts.put(code, count.sum()));
+
+            return new OperationStats(
+                    operation,
+                    totalLatency.getTotalCount(),
+                    totalLatency.getValueAtPercentile(50),
+                    totalLatency.getValueAtPercentile(99),
+                    totalLatency.getValueAtPercentile(99.9),
+                    totalLatency.getMaxValue(),
+                    requestBytes.sum(),
+                    responseBytes.sum(),
+                    totalBatchSizes.getTotalCount() == 0 ? 0 : totalBatchSizes.getMean(),
+                    errorCounts,
+                    inFlight.get());
+        }
+    }
+}
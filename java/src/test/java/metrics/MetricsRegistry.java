@@ -0,0 +1,25 @@
+package metrics;
+
+// MetricsRegistry receives the measurements of the vault API calls made by the clients.
+// Operations are named after the client and method, e.g. "tokens.tokenize".
+// The methods are called on the calling thread of every vault call, so implementations
+// must be thread safe and should not block. The interface maps directly to Micrometer
+// meters (timers, distribution summaries, counters and gauges) for applications that
+// want to publish the measurements there.
+public interface MetricsRegistry {
+
+    void recordLatency(String operation, long nanos);
+
+    void recordRequestBytes(String operation, long bytes);
+
+    void recordResponseBytes(String operation, long bytes);
+
+    // The number of items (objects, tokenize requests, token ids) sent in one call.
+    void recordBatchSize(String operation, long size);
+
+    // errorCode is the error_code of the ApiError, or the HTTP status if there is none.
+    void recordError(String operation, String errorCode);
+
+    // Called with 1 when a call starts and with -1 when it completes.
+    void addInFlight(String operation, int delta);
+}
@@ -0,0 +1,62 @@
+package metrics;
+
+import com.piiano.vault.client.openapi.ApiClient;
+import com.piiano.vault.client.openapi.ApiException;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.client.Entity;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// The calls of these tests do not reach a vault. They are made with the HTTP client of an
+// ApiClient to a local server that returns the body of the request twice.
+public class TestVaultMetrics {
+
+    private HttpServer server;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/echo", exchange -> {
+            var body = exchange.getRequestBody().readAllBytes();
+            // A length of 0 sends the response chunked, without a Content-Length.
+            exchange.sendResponseHeaders(200, exchange.getRequestURI().getQuery() == null ? body.length * 2 : 0);
+            try (var out = exchange.getResponseBody()) {
+                out.write(body);
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void bytesOfChunkedResponsesAreCounted() throws ApiException {
+        var registry = new HdrMetricsRegistry();
+        var metrics = new VaultMetrics(registry);
+        var apiClient = metrics.instrument(new ApiClient());
+        var body = "x".repeat(12_345);
+
+        var url = "http://localhost:" + server.getAddress().getPort() + "/echo";
+        for (var target : new String[]{url, url + "?chunked"}) {
+            var response = metrics.call("echo", 0, () -> apiClient.getHttpClient().target(target)
+                    .request().post(Entity.text(body), String.class));
+            Assertions.assertEquals(body + body, response);
+        }
+
+        // The sums are exact.
+        var echo = registry.snapshot().get("echo");
+        Assertions.assertEquals(2, echo.count());
+        Assertions.assertEquals(2L * body.getBytes(StandardCharsets.UTF_8).length, echo.requestBytes());
+        Assertions.assertEquals(4L * body.getBytes(StandardCharsets.UTF_8).length, echo.responseBytes());
+    }
+}
@@ -0,0 +1,208 @@
+package metrics;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.piiano.vault.client.openapi.ApiClient;
+import com.piiano.vault.client.openapi.ApiException;
+import common.ApiCall;
+import common.ApiError;
+import common.ApiMethod;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+// VaultMetrics measures the vault API calls made by the clients and records them in a MetricsRegistry.
+// Each call records its latency, batch size, in-flight count and, when it fails, the error code.
+// The request and response sizes are measured by a filter and interceptors registered on the
+// HTTP client of the ApiClient, and are attributed to the operation of the call in progress
+// on the calling thread. They are the bytes of the entities as they are written and read, so
+// responses without a Content-Length, e.g. chunked ones, are measured too.
+// VaultMetrics.disabled() does not measure anything and adds no cost to the calls.
+public class VaultMetrics {
+
+    private static final VaultMetrics DISABLED = new VaultMetrics(null);
+    private static final String OPERATION_PROPERTY = "vault.metrics.operation";
+    private static final ThreadLocal<String> currentOperation = new ThreadLocal<>();
+
+    private final MetricsRegistry registry;
+    private final Set<ApiClient> instrumentedClients = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<>()));
+
+    public VaultMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    public static VaultMetrics disabled() {
+        return DISABLED;
+    }
+
+    public MetricsRegistry registry() {
+        return registry;
+    }
+
+    // Measure the sizes of the requests and responses of the client.
+    // Instrumenting a client more than once has no effect.
+    public ApiClient instrument(ApiClient client) {
+        if (registry != null && instrumentedClients.add(client)) {
+            client.getHttpClient().register(new SizeFilter());
+        }
+        return client;
+    }
+
+    // Call the vault and record the measurements of the call as operation.
+    // batchSize is the number of items sent in the call, or 0 if the call does not send a batch.
+    public <T> T call(String operation, long batchSize, ApiCall<T> call) throws ApiException {
+        if (registry == null) {
+            return call.call();
+        }
+
+        registry.addInFlight(operation, 1);
+        if (batchSize > 0) {
+            registry.recordBatchSize(operation, batchSize);
+        }
+        var enclosingOperation = currentOperation.get();
+        currentOperation.set(operation);
+        long start = System.nanoTime();
+        try {
+            return call.call();
+        } catch (ApiException e) {
+            registry.recordError(operation, errorCode(e));
+            throw e;
+        } finally {
+            registry.recordLatency(operation, System.nanoTime() - start);
+            registry.addInFlight(operation, -1);
+            if (enclosingOperation == null) {
+                currentOperation.remove();
+            } else {
+                currentOperation.set(enclosingOperation);
+            }
+        }
+    }
+
+    public void run(String operation, long batchSize, ApiMethod method) throws ApiException {
+        call(operation, batchSize, () -> {
+            method.call();
+            return null;
+        });
+    }
+
+    // The error_code of the vault error, or the HTTP status when the response is not a vault error
+    // (0 when the vault could not be reached).
+    private static String errorCode(ApiException e) {
+        try {
+            var error = ApiError.fromException(e);
+            if (error.error_code != null) {
+                return error.error_code;
+            }
+        } catch (JsonProcessingException | RuntimeException ignored) {
+            // Not a vault error.
+        }
+        return String.valueOf(e.getCode());
+    }
+
+    private final class SizeFilter implements ClientRequestFilter, WriterInterceptor, ReaderInterceptor {
+
+        @Override
+        public void filter(ClientRequestContext request) {
+            var operation = currentOperation.get();
+            if (operation != null) {
+                request.setProperty(OPERATION_PROPERTY, operation);
+            }
+        }
+
+        @Override
+        public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+            var operation = (String) context.getProperty(OPERATION_PROPERTY);
+            if (operation == null) {
+                context.proceed();
+                return;
+            }
+            var out = new CountingOutputStream(context.getOutputStream());
+            context.setOutputStream(out);
+            try {
+                context.proceed();
+            } finally {
+                registry.recordRequestBytes(operation, out.count);
+            }
+        }
+
+        @Override
+        public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException {
+            var operation = (String) context.getProperty(OPERATION_PROPERTY);
+            if (operation == null) {
+                return context.proceed();
+            }
+            var in = new CountingInputStream(context.getInputStream());
+            context.setInputStream(in);
+            try {
+                return context.proceed();
+            } finally {
+                registry.recordResponseBytes(operation, in.count);
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
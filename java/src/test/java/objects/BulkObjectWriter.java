@@ -0,0 +1,163 @@
+package objects;
+
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.ObjectID;
+import common.DaemonThreads;
+import common.UncheckedApiException;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+// BulkObjectWriter adds a stream of objects to a collection.
+// The records are coalesced into batches that are bounded both by a number of
+// records and by an estimated number of bytes, and up to maxInFlight batches are
+// written concurrently. Reading the stream blocks while maxInFlight batches are
+// in flight, so only a bounded number of records is held in memory.
+public class BulkObjectWriter implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    public static final int DEFAULT_MAX_BATCH_BYTES = 256 * 1024;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    private final ObjectsClient objectsClient;
+    private final int maxBatchSize;
+    private final int maxBatchBytes;
+    private final Semaphore inFlight;
+    private final ExecutorService executor;
+
+    public BulkObjectWriter(ObjectsClient objectsClient) {
+        this(objectsClient, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_BYTES, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public BulkObjectWriter(ObjectsClient objectsClient, int maxBatchSize, int maxBatchBytes, int maxInFlight) {
+        if (maxBatchSize < 1 || maxBatchBytes < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("batch size, batch bytes and in flight limit must be positive");
+        }
+        this.objectsClient = objectsClient;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.executor = Executors.newFixedThreadPool(maxInFlight, DaemonThreads.named("bulk-object-writer"));
+    }
+
+    // Add all the records to the collection. Failures to add a record do not stop the
+    // write; they are reported in the result next to the index of the record.
+    public BulkWriteResult write(String collectionName, Stream<Map<String, Object>> records) throws ApiException {
+        var pending = new ArrayList<Future<Batch>>();
+        var iterator = records.iterator();
+        var batch = new Batch(0);
+        int index = 0;
+
+        try {
+            while (iterator.hasNext()) {
+                var record = iterator.next();
+                int bytes = estimateBytes(record);
+                if (!batch.isEmpty() && (batch.size() >= maxBatchSize || batch.bytes + bytes > maxBatchBytes)) {
+                    pending.add(submit(collectionName, batch));
+                    batch = new Batch(index);
+                }
+                batch.add(record, bytes);
+                index++;
+            }
+            if (!batch.isEmpty()) {
+                pending.add(submit(collectionName, batch));
+            }
+
+            var objectIds = new ArrayList<ObjectID>(index);
+            var failures = new TreeMap<Integer, ApiException>();
+            for (var future : pending) {
+                var written = future.get();
+                objectIds.addAll(written.objectIds);
+                failures.putAll(written.failures);
+            }
+            return new BulkWriteResult(objectIds, failures);
+        } catch (InterruptedException e) {
+            pending.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        } catch (ExecutionException e) {
+            // The write fails, so the other batches are not written. writeBatch reports the
+            // ApiExceptions of the client, so the cause is unchecked.
+            pending.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new UncheckedApiException(new ApiException(e.getCause()));
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private Future<Batch> submit(String collectionName, Batch batch) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            return executor.submit(() -> {
+                try {
+                    return writeBatch(collectionName, batch);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    // The vault API used by ObjectsClient adds a single object per call, so a batch is
+    // written as a sequence of adds by one worker while other batches are in flight.
+    private Batch writeBatch(String collectionName, Batch batch) {
+        for (int i = 0; i < batch.records.size(); i++) {
+            try {
+                batch.objectIds.add(objectsClient.add(collectionName, batch.records.get(i)));
+            } catch (ApiException e) {
+                batch.objectIds.add(null);
+                batch.failures.put(batch.startIndex + i, e);
+            }
+        }
+        // Release the records as soon as they are written. Only the ids are kept.
+        batch.records.clear();
+        return batch;
+    }
+
+    // A rough estimate of the size of the JSON body of a record.
+    private static int estimateBytes(Map<String, Object> record) {
+        int bytes = 2;
+        for (var entry : record.entrySet()) {
+            bytes += entry.getKey().length() + String.valueOf(entry.getValue()).length() + 6;
+        }
+        return bytes;
+    }
+
+    private static final class Batch {
+        private final int startIndex;
+        private final List<Map<String, Object>> records = new ArrayList<>();
+        private final List<ObjectID> objectIds = new ArrayList<>();
+        private final Map<Integer, ApiException> failures = new TreeMap<>();
+        private int bytes;
+
+        private Batch(int startIndex) {
+            this.startIndex = startIndex;
+        }
+
+        private void add(Map<String, Object> record, int recordBytes) {
+            records.add(record);
+            bytes += recordBytes;
+        }
+
+        private int size() {
+            return records.size();
+        }
+
+        private boolean isEmpty() {
+            return records.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package objects;
+
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.ObjectID;
+
+import java.util.List;
+import java.util.Map;
+
+// BulkWriteResult contains all the information returned by BulkObjectWriter.write.
+// - The ids of the added objects, ordered as the records that were passed to write.
+//   The id of a record that could not be added is null.
+// - The failures, keyed by the index of the failed record.
+public record BulkWriteResult(List<ObjectID> objectIds, Map<Integer, ApiException> failures) {
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+}
@@ -0,0 +1,198 @@
+package objects;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.piiano.vault.client.openapi.ApiException;
+import common.DaemonThreads;
+import common.JsonMappers;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+// CollectionExporter exports the objects of a collection to newline delimited JSON files.
+// listObjects pages are fetched by following the cursor, which is inherently sequential,
+// and are handed to a number of workers. Each worker owns one part file and serializes the
+// pages it takes with a streaming generator straight into the file channel, without
+// copying the objects. The pages waiting for a worker are bounded, so memory does not
+// grow with the size of the collection.
+// The objects are partitioned between the part files in no particular order.
+public class CollectionExporter {
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+    public static final int DEFAULT_WORKERS = 4;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final List<Map<String, Object>> END_OF_PAGES = Collections.emptyList();
+
+    private final JsonFactory jsonFactory = JsonMappers.factory();
+    private final ObjectsClient objectsClient;
+    private final int pageSize;
+    private final int workers;
+
+    public CollectionExporter(ObjectsClient objectsClient) {
+        this(objectsClient, DEFAULT_PAGE_SIZE, DEFAULT_WORKERS);
+    }
+
+    public CollectionExporter(ObjectsClient objectsClient, int pageSize, int workers) {
+        if (pageSize < 1 || workers < 1) {
+            throw new IllegalArgumentException("page size and workers must be positive");
+        }
+        this.objectsClient = objectsClient;
+        this.pageSize = pageSize;
+        this.workers = workers;
+    }
+
+    // Export the props of all the objects of the collection to part files in directory.
+    // props may include transformations, such as "ssn.mask". If props is null all the
+    // properties are exported.
+    public ExportResult export(String collectionName, List<String> props, Path directory)
+            throws ApiException, IOException {
+
+        Files.createDirectories(directory);
+        long start = System.nanoTime();
+
+        var pages = new ArrayBlockingQueue<List<Map<String, Object>>>(workers);
+        var failure = new AtomicReference<Throwable>();
+        var executor = Executors.newFixedThreadPool(workers, DaemonThreads.named("collection-exporter"));
+
+        var files = new ArrayList<Path>();
+        var parts = new ArrayList<Future<Long>>();
+        for (int i = 0; i < workers; i++) {
+            var file = directory.resolve(String.format("%s-part-%05d.ndjson", collectionName, i));
+            files.add(file);
+            parts.add(executor.submit(() -> writePart(file, pages, failure)));
+        }
+
+        long rows = 0;
+        try {
+            try {
+                fetchPages(collectionName, props, pages, failure);
+            } finally {
+                // The workers keep taking pages until they take END_OF_PAGES, so this does not block for long.
+                for (int i = 0; i < workers; i++) {
+                    pages.put(END_OF_PAGES);
+                }
+            }
+            for (var part : parts) {
+                rows += part.get();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        } catch (ExecutionException e) {
+            failure.compareAndSet(null, e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        if (failure.get() != null) {
+            if (failure.get() instanceof IOException) {
+                throw (IOException) failure.get();
+            }
+            throw new RuntimeException(failure.get());
+        }
+        return new ExportResult(files, rows, System.nanoTime() - start);
+    }
+
+    // Fetch all the pages of the collection, following the cursor, and queue them for the workers.
+    private void fetchPages(String collectionName, List<String> props, BlockingQueue<List<Map<String, Object>>> pages,
+                            AtomicReference<Throwable> failure) throws ApiException, InterruptedException {
+        String cursor = "";
+        boolean lastPage = false;
+        while (!lastPage && failure.get() == null) {
+            var page = objectsClient.list(collectionName, pageSize, cursor, props);
+            lastPage = ObjectScanner.isLastPage(page, pageSize);
+            if (page.getResults() != null && !page.getResults().isEmpty()) {
+                pages.put(page.getResults());
+            }
+            if (!lastPage) {
+                cursor = page.getPaging().getCursor();
+            }
+        }
+    }
+
+    // Write the pages taken from the queue to file until END_OF_PAGES is taken and return
+    // the number of rows written. After a failure the pages are still taken, and dropped,
+    // so that fetching pages never blocks on a failed worker.
+    private long writePart(Path file, BlockingQueue<List<Map<String, Object>>> pages,
+                           AtomicReference<Throwable> failure) throws InterruptedException {
+        long rows = 0;
+        boolean ended = false;
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             var generator = jsonFactory.createGenerator(
+                     new BufferedOutputStream(Channels.newOutputStream(channel), OUTPUT_BUFFER_SIZE),
+                     JsonEncoding.UTF8)) {
+
+            // Each object is followed by a newline only, not by the space that Jackson writes
+            // between root values by default.
+            generator.setRootValueSeparator(null);
+            var page = pages.take();
+            while (page != END_OF_PAGES) {
+                if (failure.get() == null) {
+                    for (var object : page) {
+                        writeValue(generator, object);
+                        generator.writeRaw('\n');
+                        rows++;
+                    }
+                }
+                page = pages.take();
+            }
+            ended = true;
+        } catch (IOException | RuntimeException e) {
+            failure.compareAndSet(null, e);
+            if (!ended) {
+                drain(pages);
+            }
+        }
+        return rows;
+    }
+
+    private static void drain(BlockingQueue<List<Map<String, Object>>> pages) throws InterruptedException {
+        var page = pages.take();
+        while (page != END_OF_PAGES) {
+            page = pages.take();
+        }
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            generator.writeNumber(value.toString());
+        } else if (value instanceof Map) {
+            generator.writeStartObject();
+            for (var entry : ((Map<?, ?>) value).entrySet()) {
+                generator.writeFieldName(String.valueOf(entry.getKey()));
+                writeValue(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if (value instanceof Iterable) {
+            generator.writeStartArray();
+            for (var item : (Iterable<?>) value) {
+                writeValue(generator, item);
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package objects;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.piiano.vault.client.openapi.ApiClient;
+import com.piiano.vault.client.openapi.model.ObjectFieldsPage;
+import com.piiano.vault.client.openapi.model.ObjectFieldsPagePaging;
+import common.JsonMappers;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.*;
+
+// ColumnarPage is a page of objects decoded into columns: an array of values per property,
+// in the order in which the properties first appear in the page, rather than a map per object.
+// The response is parsed as a stream of JSON tokens, without building a tree or a map per
+// object, and each property name is stored once per page.
+// The results of the page are a read-only list of map views of the objects, backed by the
+// columns, so code that reads the results of an ObjectFieldsPage, and its equals, hashCode
+// and toString, work unchanged. A view has the properties of its object that were in the
+// response, including those that were null, like the map that Jackson would have built.
+// To decode the pages listed through a client as ColumnarPages, call register(client). The
+// results of a ColumnarPage cannot be replaced or added to.
+public final class ColumnarPage extends ObjectFieldsPage {
+
+    public static final String ID = "id";
+
+    // Marks a property that is not in the response of an object.
+    private static final Object ABSENT = new Object();
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final List<String> columnNames = new ArrayList<>();
+    private final Map<String, Integer> columnIndexes = new HashMap<>();
+    private final List<Object[]> columns = new ArrayList<>();
+    private int capacity = INITIAL_CAPACITY;
+    private int rowCount;
+    private final List<Map<String, Object>> rows = new AbstractList<>() {
+        @Override
+        public Map<String, Object> get(int row) {
+            Objects.checkIndex(row, rowCount);
+            return new Row(row);
+        }
+
+        @Override
+        public int size() {
+            return rowCount;
+        }
+    };
+
+    private ColumnarPage() {
+        super.setResults(rows);
+    }
+
+    // Decode the pages listed through the client as ColumnarPages.
+    public static ApiClient register(ApiClient client) {
+        var httpClient = client.getHttpClient();
+        if (!httpClient.getConfiguration().isRegistered(Reader.class)) {
+            httpClient.register(Reader.class);
+        }
+        return client;
+    }
+
+    public static ColumnarPage parse(InputStream json) throws IOException {
+        try (var parser = JsonMappers.factory().createParser(json)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            return parse(parser);
+        }
+    }
+
+    public static ColumnarPage parse(JsonParser parser) throws IOException {
+        var page = new ColumnarPage();
+        expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.getCurrentName();
+            var token = parser.nextToken();
+            if (field.equals("results") && token == JsonToken.START_ARRAY) {
+                page.readRows(parser);
+            } else if (field.equals("paging") && token == JsonToken.START_OBJECT) {
+                page.setPaging(JsonMappers.mapper().readValue(parser, ObjectFieldsPagePaging.class));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return page;
+    }
+
+    @Override
+    public ObjectFieldsPage results(List<Map<String, Object>> results) {
+        throw new UnsupportedOperationException("the results of a columnar page cannot be replaced");
+    }
+
+    @Override
+    public void setResults(List<Map<String, Object>> results) {
+        throw new UnsupportedOperationException("the results of a columnar page cannot be replaced");
+    }
+
+    @Override
+    public ObjectFieldsPage addResultsItem(Map<String, Object> resultsItem) {
+        throw new UnsupportedOperationException("the results of a columnar page cannot be added to");
+    }
+
+    public int rowCount() {
+        return rowCount;
+    }
+
+    // The names of the columns, in the order of their indexes.
+    public List<String> columnNames() {
+        return Collections.unmodifiableList(columnNames);
+    }
+
+    // The index of the column of the property, or -1 if no object in the page has it.
+    public int columnIndex(String name) {
+        var index = columnIndexes.get(name);
+        return index == null ? -1 : index;
+    }
+
+    // The value of the column in the row. An absent property is null.
+    public Object value(int row, int column) {
+        Objects.checkIndex(row, rowCount);
+        var value = columns.get(column)[row];
+        return value == ABSENT ? null : value;
+    }
+
+    // The id of the object in the row, or null if the id was not listed.
+    public UUID id(int row) {
+        int column = columnIndex(ID);
+        var id = column < 0 ? null : value(row, column);
+        return id == null ? null : UUID.fromString(id.toString());
+    }
+
+    private void readRows(JsonParser parser) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            expect(token, JsonToken.START_OBJECT, parser);
+            if (rowCount == capacity) {
+                grow();
+            }
+            int row = rowCount++;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var column = column(parser.getCurrentName());
+                column[row] = readValue(parser, parser.nextToken());
+            }
+        }
+    }
+
+    private Object[] column(String name) {
+        var index = columnIndexes.get(name);
+        if (index != null) {
+            return columns.get(index);
+        }
+        var column = new Object[capacity];
+        // The objects before the first one with this property do not have it.
+        Arrays.fill(column, ABSENT);
+        columnIndexes.put(name, columns.size());
+        columnNames.add(name);
+        columns.add(column);
+        return column;
+    }
+
+    private void grow() {
+        int newCapacity = capacity * 2;
+        for (int i = 0; i < columns.size(); i++) {
+            var column = Arrays.copyOf(columns.get(i), newCapacity);
+            Arrays.fill(column, capacity, newCapacity, ABSENT);
+            columns.set(i, column);
+        }
+        capacity = newCapacity;
+    }
+
+    // Scalars are read as Jackson reads them into a map, nested values with the mapper.
+    private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                return JsonMappers.mapper().readValue(parser, Object.class);
+        }
+    }
+
+    private static void expect(JsonToken token, JsonToken expected, JsonParser parser) throws IOException {
+        if (token != expected) {
+            throw new IOException("expected " + expected + " but found " + token + " at " + parser.getCurrentLocation());
+        }
+    }
+
+    private final class Row extends AbstractMap<String, Object> {
+        private final int row;
+
+        private Row(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public Object get(Object key) {
+            var index = columnIndexes.get(key);
+            if (index == null) {
+                return null;
+            }
+            var value = columns.get(index)[row];
+            return value == ABSENT ? null : value;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            var index = columnIndexes.get(key);
+            return index != null && columns.get(index)[row] != ABSENT;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<>() {
+                        private int next = skipAbsent(0);
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < columns.size();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            var entry = new SimpleImmutableEntry<>(columnNames.get(next), columns.get(next)[row]);
+                            next = skipAbsent(next + 1);
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (var column : columns) {
+                        if (column[row] != ABSENT) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+
+        private int skipAbsent(int column) {
+            while (column < columns.size() && columns.get(column)[row] == ABSENT) {
+                column++;
+            }
+            return column;
+        }
+    }
+
+    // Reads the JSON of a page of objects into a ColumnarPage. It is more specific than the
+    // JSON provider of the ApiClient, which reads any type, so Jersey prefers it.
+    @Consumes(MediaType.APPLICATION_JSON)
+    public static final class Reader implements MessageBodyReader<ObjectFieldsPage> {
+
+        @Override
+        public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+            return type.isAssignableFrom(ColumnarPage.class) && ObjectFieldsPage.class.isAssignableFrom(type);
+        }
+
+        @Override
+        public ObjectFieldsPage readFrom(Class<ObjectFieldsPage> type, Type genericType, Annotation[] annotations,
+                                         MediaType mediaType, MultivaluedMap<String, String> httpHeaders,
+                                         InputStream entityStream) throws IOException {
+            return parse(entityStream);
+        }
+    }
+}
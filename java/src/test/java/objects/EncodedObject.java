@@ -0,0 +1,128 @@
+package objects;
+
+import com.piiano.vault.client.openapi.ApiClient;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// EncodedObject is an object serialized to JSON by a RecordCodec.
+// It can be passed to ObjectsClient.add like any other object: an ObjectsClient sends its
+// JSON as is, without serializing it again. It is also a read-only map of the fields of the
+// record, for code that reads objects as maps.
+// The buffer and the record are reused by the next record encoded into this object, so it
+// must not be kept, e.g. in a BulkObjectWriter batch, once the next record is encoded.
+public final class EncodedObject extends AbstractMap<String, Object> {
+
+    private final RecordCodec codec;
+    private byte[] buffer = new byte[256];
+    private int length;
+    private Object id;
+    private Object[] record;
+
+    EncodedObject(RecordCodec codec) {
+        this.codec = codec;
+    }
+
+    // The codec that encodes this object, and the collection of the object.
+    public RecordCodec codec() {
+        return codec;
+    }
+
+    // The number of bytes of the JSON.
+    public int length() {
+        return length;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    public String toJson() {
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (record == null) {
+            return Set.of();
+        }
+        var entries = new LinkedHashMap<String, Object>();
+        if (id != null) {
+            entries.put(RecordCodec.ID, id);
+        }
+        var names = codec.fieldNames();
+        for (int i = 0; i < record.length; i++) {
+            if (record[i] != null) {
+                entries.put(names.get(i), record[i]);
+            }
+        }
+        return Collections.unmodifiableMap(entries).entrySet();
+    }
+
+    // Send the encoded objects of the client as is.
+    static ApiClient register(ApiClient client) {
+        var httpClient = client.getHttpClient();
+        if (!httpClient.getConfiguration().isRegistered(Writer.class)) {
+            httpClient.register(Writer.class);
+        }
+        return client;
+    }
+
+    void reset() {
+        length = 0;
+        id = null;
+        record = null;
+    }
+
+    void setRecord(Object id, Object[] record) {
+        this.id = id;
+        this.record = record;
+    }
+
+    void write(int b) {
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    void write(byte[] bytes) {
+        if (length + bytes.length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + bytes.length));
+        }
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    // Writes the JSON of an EncodedObject request body. It is more specific than the JSON
+    // provider of the ApiClient, which writes any object, so Jersey prefers it.
+    @Produces(MediaType.APPLICATION_JSON)
+    public static final class Writer implements MessageBodyWriter<EncodedObject> {
+
+        @Override
+        public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+            return EncodedObject.class.isAssignableFrom(type);
+        }
+
+        @Override
+        public long getSize(EncodedObject object, Class<?> type, Type genericType, Annotation[] annotations,
+                            MediaType mediaType) {
+            return object.length;
+        }
+
+        @Override
+        public void writeTo(EncodedObject object, Class<?> type, Type genericType, Annotation[] annotations,
+                            MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+                throws IOException {
+            entityStream.write(object.buffer, 0, object.length);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package objects;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// ExportResult contains all the information returned by CollectionExporter.export.
+public record ExportResult(List<Path> files, long rows, long elapsedNanos) {
+
+    public double rowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+}
@@ -0,0 +1,55 @@
+package objects;
+
+import com.piiano.vault.client.openapi.ApiClient;
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.ObjectFieldsPage;
+import com.piiano.vault.client.openapi.model.ObjectID;
+import limits.Lane;
+import limits.VaultLimiter;
+import metrics.VaultMetrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// LimitedObjectsClient is an ObjectsClient whose calls are paced by a VaultLimiter in a lane.
+// Clients of different lanes should share the limiter, e.g. a BULK client used by a
+// BulkObjectWriter and an INTERACTIVE client used by online requests.
+public class LimitedObjectsClient extends ObjectsClient {
+
+    private final VaultLimiter limiter;
+    private final Lane lane;
+
+    public LimitedObjectsClient(ApiClient client, VaultLimiter limiter, Lane lane) {
+        this(client, VaultMetrics.disabled(), limiter, lane);
+    }
+
+    public LimitedObjectsClient(ApiClient client, VaultMetrics metrics, VaultLimiter limiter, Lane lane) {
+        super(client, metrics);
+        this.limiter = limiter;
+        this.lane = lane;
+    }
+
+    @Override
+    public ObjectID add(String collectionName, Map<String, Object> fields) throws ApiException {
+        return limiter.call("objects.add", lane, 1, () -> super.add(collectionName, fields));
+    }
+
+    @Override
+    public ObjectFieldsPage get(String collectionName, List<UUID> ids, List<String> props) throws ApiException {
+        return limiter.call("objects.get", lane, ids == null ? 1 : ids.size(), () -> super.get(collectionName, ids, props));
+    }
+
+    @Override
+    public ObjectFieldsPage list(String collectionName, int pageSize, String cursor, List<String> props) throws ApiException {
+        return limiter.call("objects.list", lane, 1, () -> super.list(collectionName, pageSize, cursor, props));
+    }
+
+    @Override
+    public void deleteById(String collectionName, UUID id) throws ApiException {
+        limiter.call("objects.delete", lane, 1, () -> {
+            super.deleteById(collectionName, id);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,190 @@
+package objects;
+
+import collections.CollectionSchema;
+import com.piiano.vault.client.openapi.ApiException;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// MaskEngine evaluates the built-in mask transformation of the SSN, EMAIL, PHONE_NUMBER
+// and ZIP_CODE_US data types locally, producing the same output as the vault. A service
+// that already fetched the plaintext of an object can derive its masks, e.g. "ssn.mask",
+// without listing the object again:
+// - SSN: "***-**-" followed by the last 4 characters, e.g. ***-**-1234.
+// - EMAIL: the first character, "***" and the domain, e.g. j***@somemail.com.
+// - PHONE_NUMBER: the number without spaces, dashes and parentheses (as the vault stores
+//   it), all but its last 4 characters replaced by '*', e.g. *******2123.
+// - ZIP_CODE_US: the first 3 characters followed by a '*' for each other one, e.g. 123**.
+// The masks are written into a char array, so mask(..., char[], int) does not allocate
+// and mask(String, CharSequence) allocates only the returned String.
+// The caller must be authorized to read the plaintext. Masking does not check the format
+// of the value, see RecordCodec.
+public final class MaskEngine {
+
+    public static final String MASK = "mask";
+    // The mask of an SSN has up to 11 chars and that of an email up to 3 more than the email.
+    private static final int MAX_SSN_MASK_LENGTH = 11;
+
+    private MaskEngine() {
+    }
+
+    public static boolean supports(String dataTypeName) {
+        switch (dataTypeName) {
+            case "SSN":
+            case "EMAIL":
+            case "PHONE_NUMBER":
+            case "ZIP_CODE_US":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // The size of an array that can hold the mask of any value of plaintextLength chars.
+    public static int maxMaskLength(int plaintextLength) {
+        return Math.max(MAX_SSN_MASK_LENGTH, plaintextLength + 3);
+    }
+
+    // Writes the mask of plaintext into out, starting at offset, and returns its length.
+    // out must have maxMaskLength(plaintext.length()) chars after offset.
+    public static int mask(String dataTypeName, CharSequence plaintext, char[] out, int offset) {
+        switch (dataTypeName) {
+            case "SSN":
+                return maskSsn(plaintext, out, offset);
+            case "EMAIL":
+                return maskEmail(plaintext, out, offset);
+            case "PHONE_NUMBER":
+                return maskPhoneNumber(plaintext, out, offset);
+            case "ZIP_CODE_US":
+                return maskZipCode(plaintext, out, offset);
+            default:
+                throw new IllegalArgumentException("no mask transformation for data type " + dataTypeName);
+        }
+    }
+
+    public static String mask(String dataTypeName, CharSequence plaintext) {
+        var out = new char[maxMaskLength(plaintext.length())];
+        return new String(out, 0, mask(dataTypeName, plaintext, out, 0));
+    }
+
+    // Returns the props of the object, where a prop is a property or the mask of a property,
+    // e.g. "ssn.mask", as the vault lists them. The object must have the plaintext of every
+    // masked property. The props are checked against the schema, a prop that is not in the
+    // collection, or a transformation other than a supported mask, is a bad request.
+    public static Map<String, Object> render(CollectionSchema schema, Map<String, Object> object, List<String> props)
+            throws ApiException {
+        var rendered = new LinkedHashMap<String, Object>();
+        char[] buffer = null;
+        for (var prop : props) {
+            int dot = prop.indexOf('.');
+            if (dot < 0) {
+                if (!prop.equals("id") && schema.getProperty(prop) == null) {
+                    throw CollectionSchema.badRequest("property " + prop + " is not in collection " + schema.getName());
+                }
+                rendered.put(prop, object.get(prop));
+                continue;
+            }
+            var name = prop.substring(0, dot);
+            var property = schema.getProperty(name);
+            if (property == null) {
+                throw CollectionSchema.badRequest("property " + name + " is not in collection " + schema.getName());
+            }
+            if (!prop.startsWith(MASK, dot + 1) || prop.length() != dot + 1 + MASK.length()
+                    || !supports(property.getDataTypeName())) {
+                throw CollectionSchema.badRequest("unsupported transformation " + prop);
+            }
+            var value = object.get(name);
+            if (value == null) {
+                rendered.put(prop, null);
+                continue;
+            }
+            var plaintext = value instanceof CharSequence ? (CharSequence) value : value.toString();
+            int maxLength = maxMaskLength(plaintext.length());
+            if (buffer == null || buffer.length < maxLength) {
+                buffer = new char[maxLength];
+            }
+            rendered.put(prop, new String(buffer, 0, mask(property.getDataTypeName(), plaintext, buffer, 0)));
+        }
+        return rendered;
+    }
+
+    private static int maskSsn(CharSequence ssn, char[] out, int offset) {
+        int length = put(out, offset, "***-**-");
+        for (int i = Math.max(0, ssn.length() - 4); i < ssn.length(); i++) {
+            out[offset + length++] = ssn.charAt(i);
+        }
+        return length;
+    }
+
+    private static int maskEmail(CharSequence email, char[] out, int offset) {
+        int at = indexOf(email, '@');
+        if (at <= 0) {
+            return copy(email, 0, out, offset);
+        }
+        out[offset] = email.charAt(0);
+        int length = 1 + put(out, offset + 1, "***");
+        return length + copy(email, at, out, offset + length);
+    }
+
+    private static int maskPhoneNumber(CharSequence phoneNumber, char[] out, int offset) {
+        int length = 0;
+        for (int i = 0; i < phoneNumber.length(); i++) {
+            char c = phoneNumber.charAt(i);
+            if (!isSeparator(c)) {
+                out[offset + length++] = c;
+            }
+        }
+        for (int i = 0; i < length - 4; i++) {
+            out[offset + i] = '*';
+        }
+        return length;
+    }
+
+    // The characters the vault removes from phone numbers.
+    private static boolean isSeparator(char c) {
+        switch (c) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\u000B':
+            case '\f':
+            case '\r':
+            case '(':
+            case ')':
+            case '-':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static int maskZipCode(CharSequence zipCode, char[] out, int offset) {
+        int length = zipCode.length();
+        for (int i = 0; i < length; i++) {
+            out[offset + i] = i < 3 ? zipCode.charAt(i) : '*';
+        }
+        return length;
+    }
+
+    private static int indexOf(CharSequence value, char c) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int put(char[] out, int offset, String value) {
+        value.getChars(0, value.length(), out, offset);
+        return value.length();
+    }
+
+    private static int copy(CharSequence value, int from, char[] out, int offset) {
+        for (int i = from; i < value.length(); i++) {
+            out[offset + i - from] = value.charAt(i);
+        }
+        return value.length() - from;
+    }
+}
@@ -0,0 +1,119 @@
+package objects;
+
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.ObjectFieldsPage;
+import common.DaemonThreads;
+import common.UncheckedApiException;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// ObjectScanner iterates over all the objects of a collection, page by page, following
+// the cursor returned with each page.
+// While the objects of a page are consumed the next page is fetched in the background,
+// so at most two pages are held in memory regardless of the size of the collection.
+// A scanner can be iterated once, and it closes itself when the last object was returned.
+// Closing it earlier (or the stream returned by stream()) cancels the prefetch.
+// A failed scan throws an UncheckedApiException, or the RuntimeException of the client.
+public class ObjectScanner implements Iterator<Map<String, Object>>, AutoCloseable {
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private final ObjectsClient objectsClient;
+    private final String collectionName;
+    private final int pageSize;
+    private final List<String> props;
+    private final ExecutorService prefetcher;
+
+    private Iterator<Map<String, Object>> current = Collections.emptyIterator();
+    private Future<ObjectFieldsPage> next;
+
+    public ObjectScanner(ObjectsClient objectsClient, String collectionName, List<String> props) {
+        this(objectsClient, collectionName, DEFAULT_PAGE_SIZE, props);
+    }
+
+    // If props is null all the properties are returned.
+    public ObjectScanner(ObjectsClient objectsClient, String collectionName, int pageSize, List<String> props) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("page size must be positive");
+        }
+        this.objectsClient = objectsClient;
+        this.collectionName = collectionName;
+        this.pageSize = pageSize;
+        this.props = props;
+        this.prefetcher = Executors.newSingleThreadExecutor(DaemonThreads.named("object-scanner"));
+        this.next = fetch("");
+    }
+
+    public Stream<Map<String, Object>> stream() {
+        var spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (next == null) {
+                close();
+                return false;
+            }
+            var page = await(next);
+            var results = page.getResults();
+            next = isLastPage(page, pageSize) ? null : fetch(page.getPaging().getCursor());
+            current = results == null ? Collections.emptyIterator() : results.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void close() {
+        if (next != null) {
+            next.cancel(true);
+            next = null;
+        }
+        current = Collections.emptyIterator();
+        prefetcher.shutdownNow();
+    }
+
+    private Future<ObjectFieldsPage> fetch(String cursor) {
+        return prefetcher.submit(() -> objectsClient.list(collectionName, pageSize, cursor, props));
+    }
+
+    static boolean isLastPage(ObjectFieldsPage page, int pageSize) {
+        var results = page.getResults();
+        if (results == null || results.size() < pageSize || page.getPaging() == null) {
+            return true;
+        }
+        var cursor = page.getPaging().getCursor();
+        return cursor == null || cursor.isEmpty();
+    }
+
+    private ObjectFieldsPage await(Future<ObjectFieldsPage> page) {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new UncheckedApiException(new ApiException(e));
+        } catch (ExecutionException e) {
+            close();
+            if (e.getCause() instanceof ApiException) {
+                throw new UncheckedApiException((ApiException) e.getCause());
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
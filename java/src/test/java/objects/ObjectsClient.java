@@ -1,15 +1,20 @@
 package objects;
 
+import collections.CollectionSchema;
+import collections.SchemaCache;
 import com.piiano.vault.client.openapi.ApiClient;
 import com.piiano.vault.client.openapi.ApiException;
 import com.piiano.vault.client.openapi.ObjectsApi;
 import com.piiano.vault.client.openapi.model.ObjectFieldsPage;
 import com.piiano.vault.client.openapi.model.ObjectID;
+import common.AsyncCalls;
+import metrics.VaultMetrics;
 
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import static common.Client.*;
 import static java.util.Collections.emptyList;
@@ -17,14 +22,39 @@ import static java.util.Collections.emptyList;
 public class ObjectsClient {
 
     private final ObjectsApi objects;
+    private final SchemaCache schemaCache;
+    private final VaultMetrics metrics;
 
     public ObjectsClient(ApiClient client) {
-        objects = new ObjectsApi(client);
+        this(client, null, VaultMetrics.disabled());
+    }
+
+    public ObjectsClient(ApiClient client, VaultMetrics metrics) {
+        this(client, null, metrics);
+    }
+
+    // When schemaCache is not null, the objects added by this client are validated against
+    // the schema of their collection before they are sent, and invalid objects are rejected
+    // without calling the vault. EncodedObjects were validated by their RecordCodec and are
+    // sent as they were encoded, only to the collection of their codec.
+    public ObjectsClient(ApiClient client, SchemaCache schemaCache, VaultMetrics metrics) {
+        objects = new ObjectsApi(EncodedObject.register(metrics.instrument(client)));
+        this.schemaCache = schemaCache;
+        this.metrics = metrics;
     }
 
     public ObjectID add(String collectionName, Map<String, Object> fields) throws ApiException {
-        return objects.addObject(collectionName, APP_FUNCTIONALITY_REASON, fields,
-                NO_ADHOC_REASON, RELOAD_CACHE, emptyList(), USE_DEFAULT_TTL, false, null);
+        if (fields instanceof EncodedObject) {
+            var codec = ((EncodedObject) fields).codec();
+            if (!codec.collectionName().equals(collectionName)) {
+                throw CollectionSchema.badRequest("an object of collection " + codec.collectionName()
+                        + " cannot be added to collection " + collectionName);
+            }
+        } else if (schemaCache != null) {
+            schemaCache.validate(collectionName, fields);
+        }
+        return metrics.call("objects.add", 1, () -> objects.addObject(collectionName, APP_FUNCTIONALITY_REASON, fields,
+                NO_ADHOC_REASON, RELOAD_CACHE, emptyList(), USE_DEFAULT_TTL, false, null));
     }
 
     public ObjectFieldsPage get(String collectionName, List<UUID> ids, List<String> props) throws ApiException {
@@ -32,12 +62,40 @@ public class ObjectsClient {
         if (props == null) {
             options.add("unsafe");
         }
-        return objects.listObjects(collectionName, APP_FUNCTIONALITY_REASON, NO_ADHOC_REASON, RELOAD_CACHE,
-                null, null, false, "", emptyList(), ids, options, props);
+        return metrics.call("objects.get", ids == null ? 0 : ids.size(), () -> objects.listObjects(collectionName, APP_FUNCTIONALITY_REASON,
+                NO_ADHOC_REASON, RELOAD_CACHE, null, null, false, "", emptyList(), ids, options, props));
+    }
+
+    // List a page of at most pageSize objects of the collection, starting at cursor.
+    // A null or empty cursor starts at the first page. If props is null all the properties are returned.
+    public ObjectFieldsPage list(String collectionName, int pageSize, String cursor, List<String> props) throws ApiException {
+        var options = new HashSet<String>();
+        if (props == null) {
+            options.add("unsafe");
+        }
+        return metrics.call("objects.list", 0, () -> objects.listObjects(collectionName, APP_FUNCTIONALITY_REASON,
+                NO_ADHOC_REASON, RELOAD_CACHE, pageSize, cursor == null ? "" : cursor, false, "", emptyList(), emptyList(),
+                options, props));
     }
 
     public void deleteById(String collectionName, UUID id) throws ApiException {
-        objects.deleteObjectById(collectionName, id, APP_FUNCTIONALITY_REASON,
-                NO_OPTIONS, NO_ADHOC_REASON, RELOAD_CACHE, emptyList());
+        metrics.run("objects.delete", 0, () -> objects.deleteObjectById(collectionName, id, APP_FUNCTIONALITY_REASON,
+                NO_OPTIONS, NO_ADHOC_REASON, RELOAD_CACHE, emptyList()));
+    }
+
+    public CompletableFuture<ObjectID> addAsync(String collectionName, Map<String, Object> fields) {
+        return AsyncCalls.supply(() -> add(collectionName, fields));
+    }
+
+    public CompletableFuture<ObjectFieldsPage> getAsync(String collectionName, List<UUID> ids, List<String> props) {
+        return AsyncCalls.supply(() -> get(collectionName, ids, props));
+    }
+
+    public CompletableFuture<ObjectFieldsPage> listAsync(String collectionName, int pageSize, String cursor, List<String> props) {
+        return AsyncCalls.supply(() -> list(collectionName, pageSize, cursor, props));
+    }
+
+    public CompletableFuture<Void> deleteByIdAsync(String collectionName, UUID id) {
+        return AsyncCalls.run(() -> deleteById(collectionName, id));
     }
 }
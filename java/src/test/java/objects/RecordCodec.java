@@ -0,0 +1,370 @@
+package objects;
+
+import collections.CollectionSchema;
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.Property;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// RecordCodec validates the objects of a collection and serializes them to JSON.
+// It is compiled once from the schema of the collection: each property gets its JSON name
+// encoded in advance and a check chosen by its data type (SSN, EMAIL, PHONE_NUMBER and
+// ZIP_CODE_US are checked for their format, INTEGER and BOOLEAN for their Java type, and
+// other values must be strings, numbers or booleans) and its nullability.
+// A record is an array of values in the order of fieldNames(), so encoding it does not
+// iterate a map or use reflection. The id of an object is not a property: it can be given
+// to encode(Map, ...) like CollectionSchema.validate allows, and is sent as is. The JSON is
+// written into an EncodedObject, whose buffer is reused by the next record encoded into it.
+// A string with an unpaired surrogate cannot be written in UTF-8, so it is rejected rather
+// than altered.
+// Uniqueness depends on the objects already in the collection and is left to the vault.
+// A RecordCodec is immutable and can be shared by threads, an EncodedObject cannot.
+public final class RecordCodec {
+
+    public static final String ID = "id";
+    private static final byte[] ENCODED_ID = ("\"" + ID + "\":").getBytes(StandardCharsets.US_ASCII);
+
+    private final String collectionName;
+    private final Field[] fields;
+    private final List<String> fieldNames;
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    public RecordCodec(CollectionSchema schema) {
+        this.collectionName = schema.getName();
+        var properties = schema.getCollection().getProperties() == null
+                ? List.<Property>of() : schema.getCollection().getProperties();
+        this.fields = new Field[properties.size()];
+        var names = new ArrayList<String>(properties.size());
+        for (int i = 0; i < fields.length; i++) {
+            var property = properties.get(i);
+            fields[i] = new Field(property.getName(), DataType.of(property.getDataTypeName()),
+                    !Boolean.FALSE.equals(property.getIsNullable()));
+            names.add(property.getName());
+            indexes.put(property.getName(), i);
+        }
+        this.fieldNames = Collections.unmodifiableList(names);
+    }
+
+    public String collectionName() {
+        return collectionName;
+    }
+
+    // The names of the values of a record, in order.
+    public List<String> fieldNames() {
+        return fieldNames;
+    }
+
+    // Returns -1 if the collection does not have the property.
+    public int indexOf(String fieldName) {
+        return indexes.getOrDefault(fieldName, -1);
+    }
+
+    public EncodedObject newObject() {
+        return new EncodedObject(this);
+    }
+
+    // Validate the record and write it into object, replacing the record encoded in it.
+    // A null value is not written. If the record is invalid, throws a bad request ApiException
+    // (see CollectionSchema.badRequest) and object is left empty.
+    public void encode(Object[] record, EncodedObject object) throws ApiException {
+        encode(null, record, object);
+    }
+
+    // Encode an object given as a map, e.g. one created by Factory.createObjects.
+    public void encode(Map<String, Object> fields, EncodedObject object) throws ApiException {
+        var record = new Object[this.fields.length];
+        Object id = null;
+        for (var entry : fields.entrySet()) {
+            if (entry.getKey().equals(ID)) {
+                id = entry.getValue();
+                continue;
+            }
+            int index = indexOf(entry.getKey());
+            if (index < 0) {
+                throw CollectionSchema.badRequest("property " + entry.getKey() + " is not in collection " + collectionName);
+            }
+            record[index] = entry.getValue();
+        }
+        encode(id, record, object);
+    }
+
+    private void encode(Object id, Object[] record, EncodedObject object) throws ApiException {
+        if (record.length != fields.length) {
+            throw CollectionSchema.badRequest("a record of collection " + collectionName
+                    + " has " + fields.length + " values, not " + record.length);
+        }
+        object.reset();
+        try {
+            writeRecord(id, record, object);
+        } catch (ApiException e) {
+            object.reset();
+            throw e;
+        }
+        object.setRecord(id, record);
+    }
+
+    private void writeRecord(Object id, Object[] record, EncodedObject object) throws ApiException {
+        object.write('{');
+        boolean first = true;
+        if (id != null) {
+            object.write(ENCODED_ID);
+            if (!writeString(object, id.toString())) {
+                throw CollectionSchema.badRequest("the id has an unpaired surrogate");
+            }
+            first = false;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            var field = fields[i];
+            var value = record[i];
+            if (value == null) {
+                if (!field.nullable) {
+                    throw CollectionSchema.badRequest("property " + field.name + " is not nullable");
+                }
+                continue;
+            }
+            if (!field.dataType.isValid(value)) {
+                throw CollectionSchema.badRequest("property " + field.name + " is not a valid " + field.dataType.name);
+            }
+            if (!first) {
+                object.write(',');
+            }
+            first = false;
+            object.write(field.encodedName);
+            writeValue(object, field, value);
+        }
+        object.write('}');
+    }
+
+    private static void writeValue(EncodedObject object, Field field, Object value) throws ApiException {
+        if (value instanceof CharSequence) {
+            if (!writeString(object, (CharSequence) value)) {
+                throw CollectionSchema.badRequest("property " + field.name + " has an unpaired surrogate");
+            }
+        } else if (value instanceof Boolean) {
+            object.write((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writeLong(object, ((Number) value).longValue());
+        } else {
+            // Other numbers, e.g. doubles and big decimals.
+            var number = value.toString();
+            if (value instanceof Double && !Double.isFinite((Double) value)
+                    || value instanceof Float && !Float.isFinite((Float) value)) {
+                throw CollectionSchema.badRequest("the number " + number + " is not valid in JSON");
+            }
+            for (int i = 0; i < number.length(); i++) {
+                object.write(number.charAt(i));
+            }
+        }
+    }
+
+    private static void writeLong(EncodedObject object, long value) {
+        if (value == Long.MIN_VALUE) {
+            object.write(LONG_MIN);
+            return;
+        }
+        if (value < 0) {
+            object.write('-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            object.write((int) ('0' + value / divisor % 10));
+        }
+    }
+
+    // Write the string as a JSON string in UTF-8. Returns false, having written part of it,
+    // if it has an unpaired surrogate.
+    private static boolean writeString(EncodedObject object, CharSequence value) {
+        object.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    object.write('\\');
+                    object.write(c);
+                } else if (c < 0x20) {
+                    object.write('\\');
+                    object.write('u');
+                    object.write('0');
+                    object.write('0');
+                    object.write(HEX[c >> 4]);
+                    object.write(HEX[c & 0xf]);
+                } else {
+                    object.write(c);
+                }
+            } else if (c < 0x800) {
+                object.write(0xc0 | c >> 6);
+                object.write(0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                object.write(0xf0 | codePoint >> 18);
+                object.write(0x80 | codePoint >> 12 & 0x3f);
+                object.write(0x80 | codePoint >> 6 & 0x3f);
+                object.write(0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                return false;
+            } else {
+                object.write(0xe0 | c >> 12);
+                object.write(0x80 | c >> 6 & 0x3f);
+                object.write(0x80 | c & 0x3f);
+            }
+        }
+        object.write('"');
+        return true;
+    }
+
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LONG_MIN = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final class Field {
+        private final String name;
+        // The name as a JSON string followed by a colon.
+        private final byte[] encodedName;
+        private final DataType dataType;
+        private final boolean nullable;
+
+        private Field(String name, DataType dataType, boolean nullable) {
+            var encoded = new EncodedObject(null);
+            if (!writeString(encoded, name)) {
+                throw new IllegalArgumentException("property " + name + " has an unpaired surrogate");
+            }
+            encoded.write(':');
+            this.name = name;
+            this.encodedName = encoded.toByteArray();
+            this.dataType = dataType;
+            this.nullable = nullable;
+        }
+    }
+
+    private enum DataType {
+        SSN("SSN") {
+            // ddd-dd-dddd or ddddddddd
+            @Override
+            boolean isValid(Object value) {
+                if (!(value instanceof CharSequence)) {
+                    return false;
+                }
+                var ssn = (CharSequence) value;
+                if (ssn.length() == 9) {
+                    return digits(ssn, 0, 9);
+                }
+                return ssn.length() == 11 && ssn.charAt(3) == '-' && ssn.charAt(6) == '-'
+                        && digits(ssn, 0, 3) && digits(ssn, 4, 6) && digits(ssn, 7, 11);
+            }
+        },
+        EMAIL("EMAIL") {
+            // local@domain, where the domain has a dot that is neither its first nor its last character.
+            @Override
+            boolean isValid(Object value) {
+                if (!(value instanceof CharSequence)) {
+                    return false;
+                }
+                var email = (CharSequence) value;
+                int at = -1;
+                int lastDot = -1;
+                for (int i = 0; i < email.length(); i++) {
+                    char c = email.charAt(i);
+                    if (c == '@') {
+                        if (at >= 0) {
+                            return false;
+                        }
+                        at = i;
+                    } else if (c == '.' && at >= 0) {
+                        lastDot = i;
+                    } else if (Character.isWhitespace(c)) {
+                        return false;
+                    }
+                }
+                return at > 0 && lastDot > at + 1 && lastDot < email.length() - 1;
+            }
+        },
+        PHONE_NUMBER("PHONE_NUMBER") {
+            // An optional +, then 7 to 15 digits that may be separated by spaces, dashes and parentheses.
+            @Override
+            boolean isValid(Object value) {
+                if (!(value instanceof CharSequence)) {
+                    return false;
+                }
+                var phone = (CharSequence) value;
+                int digits = 0;
+                for (int i = 0; i < phone.length(); i++) {
+                    char c = phone.charAt(i);
+                    if (c >= '0' && c <= '9') {
+                        digits++;
+                    } else if (!(c == '+' && i == 0) && c != ' ' && c != '-' && c != '(' && c != ')') {
+                        return false;
+                    }
+                }
+                return digits >= 7 && digits <= 15;
+            }
+        },
+        ZIP_CODE_US("ZIP_CODE_US") {
+            // ddddd or ddddd-dddd
+            @Override
+            boolean isValid(Object value) {
+                if (!(value instanceof CharSequence)) {
+                    return false;
+                }
+                var zip = (CharSequence) value;
+                if (zip.length() == 5) {
+                    return digits(zip, 0, 5);
+                }
+                return zip.length() == 10 && zip.charAt(5) == '-' && digits(zip, 0, 5) && digits(zip, 6, 10);
+            }
+        },
+        INTEGER("INTEGER") {
+            @Override
+            boolean isValid(Object value) {
+                return value instanceof Long || value instanceof Integer || value instanceof Short
+                        || value instanceof Byte || value instanceof BigInteger;
+            }
+        },
+        BOOLEAN("BOOLEAN") {
+            @Override
+            boolean isValid(Object value) {
+                return value instanceof Boolean;
+            }
+        },
+        OTHER("value") {
+            @Override
+            boolean isValid(Object value) {
+                return value instanceof CharSequence || value instanceof Number || value instanceof Boolean;
+            }
+        };
+
+        private final String name;
+
+        DataType(String name) {
+            this.name = name;
+        }
+
+        abstract boolean isValid(Object value);
+
+        static DataType of(String dataTypeName) {
+            for (var dataType : values()) {
+                if (dataType != OTHER && dataType.name.equalsIgnoreCase(dataTypeName)) {
+                    return dataType;
+                }
+            }
+            return OTHER;
+        }
+
+        private static boolean digits(CharSequence value, int from, int to) {
+            for (int i = from; i < to; i++) {
+                char c = value.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
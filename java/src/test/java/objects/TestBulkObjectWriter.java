@@ -0,0 +1,146 @@
+package objects;
+
+import com.piiano.vault.client.openapi.ApiClient;
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.ObjectID;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+// The objects of these tests are not sent to a vault, the adds of the client are faked.
+// A record is a map with its index in "n", and "pad" to give it a size.
+public class TestBulkObjectWriter {
+
+    private static final int RECORDS = 10;
+
+    @Test
+    public void batchesAreBoundedByRecords() throws ApiException {
+        Assertions.assertEquals(Set.of(0, 3, 6, 9), firstRecordsOfBatches(3, Integer.MAX_VALUE, 0));
+    }
+
+    @Test
+    public void batchesAreBoundedByBytes() throws ApiException {
+        // A record of 100 padding chars is estimated at 119 bytes, so two fit in 250 bytes.
+        Assertions.assertEquals(Set.of(0, 2, 4, 6, 8), firstRecordsOfBatches(100, 250, 100));
+        // A record larger than the limit is written in a batch of its own.
+        Assertions.assertEquals(Set.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), firstRecordsOfBatches(100, 10, 100));
+    }
+
+    @Test
+    public void failedRecordsAreReportedByIndex() throws ApiException {
+        var client = new FakeObjectsClient() {
+            @Override
+            public ObjectID add(String collectionName, Map<String, Object> fields) throws ApiException {
+                int n = (Integer) fields.get("n");
+                if (n % 4 == 1) {
+                    throw new ApiException(409, "conflict " + n);
+                }
+                return objectId(n);
+            }
+        };
+
+        BulkWriteResult result;
+        try (var writer = new BulkObjectWriter(client, 3, Integer.MAX_VALUE, 2)) {
+            result = writer.write("collection", records(0));
+        }
+
+        Assertions.assertTrue(result.hasFailures());
+        Assertions.assertEquals(Set.of(1, 5, 9), result.failures().keySet());
+        result.failures().forEach((n, failure) -> {
+            Assertions.assertEquals(409, failure.getCode());
+            Assertions.assertEquals("conflict " + n, failure.getMessage());
+        });
+        Assertions.assertEquals(RECORDS, result.objectIds().size());
+        for (int n = 0; n < RECORDS; n++) {
+            var objectId = result.objectIds().get(n);
+            Assertions.assertEquals(n % 4 == 1 ? null : new UUID(0, n), objectId == null ? null : objectId.getId());
+        }
+    }
+
+    @Test
+    public void failedBatchCancelsTheOthers() throws Exception {
+        var started = new CountDownLatch(2);
+        var interrupted = new CountDownLatch(2);
+        var client = new FakeObjectsClient() {
+            @Override
+            public ObjectID add(String collectionName, Map<String, Object> fields) throws ApiException {
+                if (fields.get("n").equals(0)) {
+                    // Fail once the other batches are being written.
+                    try {
+                        started.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new ApiException(e);
+                    }
+                    throw new IllegalStateException("failed");
+                }
+                started.countDown();
+                try {
+                    TimeUnit.MINUTES.sleep(1);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return null;
+            }
+        };
+
+        try (var writer = new BulkObjectWriter(client, 1, Integer.MAX_VALUE, 3)) {
+            var failure = Assertions.assertThrows(IllegalStateException.class,
+                    () -> writer.write("collection", records(0).limit(3)));
+            Assertions.assertEquals("failed", failure.getMessage());
+        }
+        Assertions.assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    // Write the records and return the indexes of the first records of the batches. A fixed
+    // thread pool creates a thread for each task while it has fewer threads than its size,
+    // so with as many batches in flight as records each batch is written by its own thread.
+    private static Set<Integer> firstRecordsOfBatches(int maxBatchSize, int maxBatchBytes, int padding)
+            throws ApiException {
+        var threads = new ConcurrentHashMap<Integer, Thread>();
+        var client = new FakeObjectsClient() {
+            @Override
+            public ObjectID add(String collectionName, Map<String, Object> fields) {
+                int n = (Integer) fields.get("n");
+                threads.put(n, Thread.currentThread());
+                return objectId(n);
+            }
+        };
+
+        BulkWriteResult result;
+        try (var writer = new BulkObjectWriter(client, maxBatchSize, maxBatchBytes, RECORDS)) {
+            result = writer.write("collection", records(padding));
+        }
+        Assertions.assertFalse(result.hasFailures());
+        for (int n = 0; n < RECORDS; n++) {
+            Assertions.assertEquals(new UUID(0, n), result.objectIds().get(n).getId());
+        }
+
+        var firstRecords = new TreeSet<Integer>();
+        for (int n = 0; n < RECORDS; n++) {
+            if (n == 0 || threads.get(n) != threads.get(n - 1)) {
+                firstRecords.add(n);
+            }
+        }
+        return firstRecords;
+    }
+
+    private static Stream<Map<String, Object>> records(int padding) {
+        return IntStream.range(0, RECORDS).mapToObj(n -> Map.of("n", n, "pad", "x".repeat(padding)));
+    }
+
+    private static ObjectID objectId(int n) {
+        var objectId = new ObjectID();
+        objectId.setId(new UUID(0, n));
+        return objectId;
+    }
+
+    private static class FakeObjectsClient extends ObjectsClient {
+        FakeObjectsClient() {
+            super(new ApiClient());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package objects;
+
+import com.piiano.vault.client.openapi.ApiClient;
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.ObjectFieldsPage;
+import com.piiano.vault.client.openapi.model.ObjectFieldsPagePaging;
+import common.UncheckedApiException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// The pages of these tests are not listed from a vault, the client is faked. An object is a
+// map with its index in "n", and the cursor of a page is the index of its first object.
+public class TestObjectScanner {
+
+    private static final int PAGE_SIZE = 10;
+
+    // The thread of the prefetch of the scanner.
+    private final AtomicReference<Thread> prefetcher = new AtomicReference<>();
+
+    @Test
+    public void scannerReadToTheEndClosesItself() throws InterruptedException {
+        var scanner = new ObjectScanner(pages(25, -1), "collection", PAGE_SIZE, null);
+        var objects = new ArrayList<Map<String, Object>>();
+        scanner.forEachRemaining(objects::add);
+
+        Assertions.assertEquals(25, objects.size());
+        for (int n = 0; n < objects.size(); n++) {
+            Assertions.assertEquals(n, objects.get(n).get("n"));
+        }
+        assertPrefetcherTerminates();
+    }
+
+    @Test
+    public void failedScanThrowsAnUncheckedApiExceptionAndClosesItself() throws InterruptedException {
+        var scanner = new ObjectScanner(pages(25, 20), "collection", PAGE_SIZE, null);
+        for (int n = 0; n < 20; n++) {
+            Assertions.assertEquals(n, scanner.next().get("n"));
+        }
+        var failure = Assertions.assertThrows(UncheckedApiException.class, scanner::hasNext);
+        Assertions.assertEquals(500, failure.getCause().getCode());
+        assertPrefetcherTerminates();
+    }
+
+    private void assertPrefetcherTerminates() throws InterruptedException {
+        var thread = prefetcher.get();
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+        Assertions.assertFalse(thread.isAlive());
+    }
+
+    // A client that lists the objects in pages of PAGE_SIZE, and fails to list the page
+    // that starts at failAt.
+    private ObjectsClient pages(int objects, int failAt) {
+        return new ObjectsClient(new ApiClient()) {
+            @Override
+            public ObjectFieldsPage list(String collectionName, int pageSize, String cursor, List<String> props)
+                    throws ApiException {
+                prefetcher.set(Thread.currentThread());
+                int from = cursor.isEmpty() ? 0 : Integer.parseInt(cursor);
+                if (from == failAt) {
+                    throw new ApiException(500, "failed to list");
+                }
+                var page = new ObjectFieldsPage();
+                var results = new ArrayList<Map<String, Object>>();
+                for (int n = from; n < Math.min(objects, from + pageSize); n++) {
+                    results.add(Map.of("n", n));
+                }
+                page.setResults(results);
+                var paging = new ObjectFieldsPagePaging();
+                paging.setCursor(String.valueOf(from + pageSize));
+                page.setPaging(paging);
+                return page;
+            }
+        };
+    }
+}
@@ -0,0 +1,296 @@
+package objects;
+
+import collections.CollectionSchema;
+import collections.CollectionsClient;
+import collections.SchemaCache;
+import com.piiano.vault.client.openapi.ApiClient;
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.Collection;
+import com.fasterxml.jackson.core.type.TypeReference;
+import common.ApiError;
+import common.Client;
+import common.CircuitBreaker;
+import common.CollectionSetup;
+import common.Helpers;
+import common.JsonMappers;
+import common.ResilientExecutor;
+import metrics.HdrMetricsRegistry;
+import metrics.VaultMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+public class TestObjects {
+
+    private final ApiClient apiClient = Client.create();
+    private final ObjectsClient objectsClient = new ObjectsClient(apiClient);
+    private final CollectionSetup setup = new CollectionSetup();
+
+    @BeforeEach()
+    public void beforeEach() throws ApiException {
+        setup.setUp();
+    }
+
+    @AfterEach()
+    public void afterEach() throws ApiException {
+        try {
+            setup.tearDown();
+        } finally {
+            Client.close(apiClient);
+        }
+    }
+
+    @Test
+    public void exportAllObjectsWithTransformations(@TempDir Path directory) throws ApiException, IOException {
+        var props = List.of("id", "ssn.mask");
+        var exporter = new CollectionExporter(objectsClient, 2, 2);
+
+        var result = exporter.export(setup.getCollection().getName(), props, directory);
+
+        Assertions.assertEquals(setup.getObjectIds().size(), result.rows());
+        var mapper = JsonMappers.mapper();
+        var exportedObjectIds = new HashSet<UUID>();
+        for (var file : result.files()) {
+            // Every line is a JSON object followed by a newline, with nothing before or after it.
+            var content = Files.readString(file);
+            Assertions.assertTrue(content.isEmpty() || content.endsWith("}\n"));
+            for (var line : Files.readAllLines(file)) {
+                Assertions.assertTrue(line.startsWith("{") && line.endsWith("}"), line);
+                Map<String, Object> object = mapper.readValue(line, new TypeReference<>() {});
+                Assertions.assertEquals(new HashSet<>(props), object.keySet());
+                exportedObjectIds.add(UUID.fromString(object.get("id").toString()));
+            }
+        }
+        Assertions.assertEquals(setup.mapObjectIdToObjectFields.keySet(), exportedObjectIds);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 100})
+    public void scanAllObjects(int pageSize) {
+        Map<UUID, Map<String, Object>> scanned = new HashMap<>();
+
+        // get all properties (props == null)
+        try (var scanner = new ObjectScanner(objectsClient, setup.getCollection().getName(), pageSize, null)) {
+            scanner.stream().forEach(object -> scanned.put(UUID.fromString(object.get("id").toString()), object));
+        }
+
+        Assertions.assertEquals(setup.mapObjectIdToObjectFields.keySet(), scanned.keySet());
+        for (var objectId : scanned.keySet()) {
+            Helpers.assertValuesOfKeysEqual(
+                    setup.mapObjectIdToObjectFields.get(objectId), scanned.get(objectId), null);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 100})
+    public void scanColumnarPages(int pageSize) throws ApiException {
+        var columnarClient = new ObjectsClient(ColumnarPage.register(apiClient));
+        var collectionName = setup.getCollection().getName();
+
+        // The objects of columnar pages are read like those of any other page.
+        Map<UUID, Map<String, Object>> scanned = new HashMap<>();
+        try (var scanner = new ObjectScanner(columnarClient, collectionName, pageSize, null)) {
+            scanner.stream().forEach(object -> scanned.put(UUID.fromString(object.get("id").toString()), object));
+        }
+        Assertions.assertEquals(setup.mapObjectIdToObjectFields.keySet(), scanned.keySet());
+        for (var objectId : scanned.keySet()) {
+            Helpers.assertValuesOfKeysEqual(
+                    setup.mapObjectIdToObjectFields.get(objectId), scanned.get(objectId), null);
+        }
+
+        // The columns have the listed props.
+        var props = List.of("id", "ssn", "email.mask");
+        var page = (ColumnarPage) columnarClient.list(collectionName, 100, null, props);
+        Assertions.assertEquals(new HashSet<>(props), new HashSet<>(page.columnNames()));
+        Assertions.assertEquals(setup.getObjectIds().size(), page.rowCount());
+        int ssn = page.columnIndex("ssn");
+        int emailMask = page.columnIndex("email.mask");
+        for (int row = 0; row < page.rowCount(); row++) {
+            var fields = setup.mapObjectIdToObjectFields.get(page.id(row));
+            Assertions.assertEquals(fields.get("ssn"), page.value(row, ssn));
+            Assertions.assertEquals(MaskEngine.mask("EMAIL", fields.get("email").toString()), page.value(row, emailMask));
+            Assertions.assertEquals(Map.of("id", page.id(row).toString(), "ssn", fields.get("ssn"),
+                    "email.mask", page.value(row, emailMask)), page.getResults().get(row));
+        }
+
+        // The model sees the rows as its results, and they cannot be modified.
+        Assertions.assertTrue(page.toString().contains(page.id(0).toString()));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> page.addResultsItem(Map.of()));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> page.getResults().clear());
+    }
+
+    @Test
+    public void metricsOfListAndFailedAdd() throws ApiException {
+        var registry = new HdrMetricsRegistry();
+        var measuredClient = new ObjectsClient(apiClient, new VaultMetrics(registry));
+        var collectionName = setup.getCollection().getName();
+
+        measuredClient.list(collectionName, 100, null, List.of("id"));
+        // The ssn property is unique. The id is removed, so the conflict is on the ssn.
+        var existing = new HashMap<>(setup.mapObjectIdToObjectFields.values().iterator().next());
+        existing.remove("id");
+        var conflict = Assertions.assertThrows(ApiException.class, () -> measuredClient.add(collectionName, existing));
+        Assertions.assertEquals(409, conflict.getCode());
+
+        var stats = registry.snapshot();
+        var list = stats.get("objects.list");
+        Assertions.assertEquals(1, list.count());
+        Assertions.assertTrue(list.p50Nanos() > 0);
+        Assertions.assertTrue(list.responseBytes() > 0);
+        Assertions.assertEquals(0, list.inFlight());
+        Assertions.assertTrue(list.errors().isEmpty());
+
+        var add = stats.get("objects.add");
+        Assertions.assertEquals(1, add.count());
+        Assertions.assertTrue(add.requestBytes() > 0);
+        Assertions.assertEquals(1, add.meanBatchSize());
+        Assertions.assertEquals(1, add.errors().values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    public void schemaCacheValidatesObjectsAndIsInvalidatedOnDelete() throws ApiException, IOException {
+        var registry = new HdrMetricsRegistry();
+        var schemaCache = new SchemaCache(apiClient);
+        var validatingClient = new ObjectsClient(apiClient, schemaCache, new VaultMetrics(registry));
+        var collectionsClient = new CollectionsClient(apiClient, schemaCache, VaultMetrics.disabled());
+        var collectionName = setup.getCollection().getName();
+
+        // The email property is not nullable and there is no address property.
+        var missingEmail = Map.<String, Object>of("ssn", "123-12-1299");
+        var unknownProperty = Map.<String, Object>of("ssn", "123-12-1299", "email", "jo@somemail.com", "address", "x");
+        for (var fields : List.of(missingEmail, unknownProperty)) {
+            var invalid = Assertions.assertThrows(ApiException.class, () -> validatingClient.add(collectionName, fields));
+            Assertions.assertEquals(400, invalid.getCode());
+            Assertions.assertNotNull(ApiError.fromException(invalid).message);
+        }
+        // The invalid objects were not sent to the vault.
+        Assertions.assertFalse(registry.snapshot().containsKey("objects.add"));
+
+        validatingClient.add(collectionName, Map.of("ssn", "123-12-1299", "email", "jo@somemail.com"));
+        Assertions.assertEquals(1, registry.snapshot().get("objects.add").count());
+        Assertions.assertSame(schemaCache.get(collectionName), schemaCache.get(collectionName));
+
+        collectionsClient.delete(collectionName);
+        var notFound = Assertions.assertThrows(ApiException.class, () -> schemaCache.get(collectionName));
+        Assertions.assertEquals(404, notFound.getCode());
+    }
+
+    @Test
+    public void addObjectsEncodedByRecordCodec() throws ApiException {
+        var collectionName = setup.getCollection().getName();
+        var schema = new SchemaCache(apiClient).get(collectionName);
+        var codec = new RecordCodec(schema);
+        var encoded = codec.newObject();
+
+        var invalidSsn = new HashMap<String, Object>(Map.of("ssn", "123-1299", "email", "jo@somemail.com"));
+        var invalid = Assertions.assertThrows(ApiException.class, () -> codec.encode(invalidSsn, encoded));
+        Assertions.assertEquals(400, invalid.getCode());
+        Assertions.assertEquals(0, encoded.length());
+
+        // A value that cannot be written in UTF-8 is rejected rather than altered.
+        var unpairedSurrogate = Map.<String, Object>of("ssn", "123-12-1298", "email", "jo\ud800@somemail.com");
+        invalid = Assertions.assertThrows(ApiException.class, () -> codec.encode(unpairedSurrogate, encoded));
+        Assertions.assertEquals(400, invalid.getCode());
+        Assertions.assertEquals(0, encoded.length());
+
+        // The same encoded object is reused for every record.
+        var added = new HashMap<UUID, Map<String, Object>>();
+        for (var ssn : List.of("123-12-1298", "123-12-1299")) {
+            var record = new Object[codec.fieldNames().size()];
+            record[codec.indexOf("ssn")] = ssn;
+            record[codec.indexOf("email")] = "jo@somemail.com";
+            codec.encode(record, encoded);
+            added.put(objectsClient.add(collectionName, encoded).getId(), new HashMap<>(encoded));
+        }
+
+        // The id of an object can be given with its fields, as the schema allows.
+        var id = UUID.randomUUID();
+        var withId = new HashMap<String, Object>(Map.of("id", id.toString(), "ssn", "123-12-1297", "email", "jo@somemail.com"));
+        schema.validate(withId);
+        codec.encode(withId, encoded);
+        Assertions.assertEquals(withId, encoded);
+        Assertions.assertEquals(id, objectsClient.add(collectionName, encoded).getId());
+        added.put(id, withId);
+
+        // An encoded object is only added to the collection of its codec.
+        var otherCollection = new Collection();
+        otherCollection.setName(collectionName + "_other");
+        otherCollection.setProperties(setup.getCollection().getProperties());
+        var otherCodec = new RecordCodec(new CollectionSchema(otherCollection));
+        var otherEncoded = otherCodec.newObject();
+        otherCodec.encode(Map.of("ssn", "123-12-1296", "email", "jo@somemail.com"), otherEncoded);
+        var wrongCollection = Assertions.assertThrows(ApiException.class,
+                () -> objectsClient.add(collectionName, otherEncoded));
+        Assertions.assertEquals(400, wrongCollection.getCode());
+
+        var objects = objectsClient.get(collectionName, new ArrayList<>(added.keySet()), null).getResults();
+        Assertions.assertEquals(added.size(), objects.size());
+        for (var object : objects) {
+            Helpers.assertValuesOfKeysEqual(
+                    added.get(UUID.fromString(object.get("id").toString())), object, List.of("ssn", "email"));
+        }
+    }
+
+    @Test
+    public void masksEvaluatedLocallyMatchTheVault() throws ApiException {
+        var collectionName = setup.getCollection().getName();
+        var schema = new SchemaCache(apiClient).get(collectionName);
+        var props = List.of("id", "ssn.mask", "email.mask", "phone_number.mask", "zip_code_us.mask");
+
+        // The masks of the objects of Factory.createObjects, by ssn, as the vault lists them.
+        var expectedMasks = Map.of(
+                "123-12-1234", List.of("***-**-1234", "j***@somemail.com", "*******2123", "123**"),
+                "123-12-1235", List.of("***-**-1235", "m***@somemail.com", "*******2124", "123**"),
+                "123-12-1236", List.of("***-**-1236", "e***@somemail.com", "*******2125", "123**"));
+
+        // Both the masks listed by the vault and those evaluated locally from the plaintext are
+        // the expected ones.
+        var transformed = objectsClient.get(collectionName, setup.getObjectIds(), props).getResults();
+        Assertions.assertEquals(setup.getObjectIds().size(), transformed.size());
+        for (var object : transformed) {
+            var plaintext = setup.mapObjectIdToObjectFields.get(UUID.fromString(object.get("id").toString()));
+            var expected = new HashMap<String, Object>(Map.of("id", object.get("id")));
+            var masks = expectedMasks.get(plaintext.get("ssn").toString());
+            for (int i = 0; i < masks.size(); i++) {
+                expected.put(props.get(i + 1), masks.get(i));
+            }
+            Assertions.assertEquals(expected, object);
+            Assertions.assertEquals(expected, MaskEngine.render(schema, plaintext, props));
+        }
+
+        var unsupported = Assertions.assertThrows(ApiException.class, () ->
+                MaskEngine.render(schema, setup.mapObjectIdToObjectFields.values().iterator().next(), List.of("ssn.hash")));
+        Assertions.assertEquals(400, unsupported.getCode());
+    }
+
+    @Test
+    public void resilientExecutorRetriesOnlyTransientErrors() throws ApiException {
+        var circuitBreaker = new CircuitBreaker(1, Duration.ofMinutes(1));
+        try (var executor = new ResilientExecutor(3, Duration.ofMillis(1), Duration.ofMillis(10),
+                circuitBreaker, true)) {
+            var page = executor.callIdempotent("objects.list", () ->
+                    objectsClient.list(setup.getCollection().getName(), 100, null, List.of("id")));
+            Assertions.assertEquals(setup.getObjectIds().size(), page.getResults().size());
+
+            var attempts = new int[1];
+            var notFound = Assertions.assertThrows(ApiException.class, () -> executor.callIdempotent("objects.list", () -> {
+                attempts[0]++;
+                return objectsClient.list("no_such_collection", 100, null, List.of("id"));
+            }));
+            Assertions.assertEquals(404, notFound.getCode());
+            Assertions.assertEquals(1, attempts[0]);
+            // A missing collection says nothing about the health of the vault.
+            Assertions.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.state());
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package tokens;
+
+import com.piiano.vault.client.openapi.ApiException;
+import common.DaemonThreads;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// BatchingProcessor is a Flow.Processor that sends the items it receives to the vault in
+// batches and publishes the results to a single subscriber.
+// The demand of the subscriber drives the batch size: items are requested from upstream only
+// when the subscriber requested results, at most min(demand, maxBatchSize) at a time, and the
+// next batch is requested only after the results of the previous one were published. A batch
+// never yields more results than items, so results are never buffered and the memory used is
+// bounded by one batch, however slow the subscriber is.
+// A batch is sent when all the requested items arrived, when upstream completes, or linger
+// after its first item arrived, whichever comes first.
+abstract class BatchingProcessor<I, O> implements Flow.Processor<I, O> {
+
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final ScheduledExecutorService executor;
+
+    // Guarded by this.
+    private Flow.Subscription upstream;
+    private Flow.Subscriber<? super O> downstream;
+    private long demand;
+    private long requested;
+    private List<I> batch = new ArrayList<>();
+    private boolean inFlight;
+    private ScheduledFuture<?> lingerTimer;
+    private boolean upstreamDone;
+    private Throwable upstreamError;
+    private boolean done;
+
+    BatchingProcessor(int maxBatchSize, Duration linger, String threadName) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = linger.toNanos();
+        this.executor = Executors.newSingleThreadScheduledExecutor(DaemonThreads.named(threadName));
+    }
+
+    // Send a batch to the vault. The results are published in order.
+    abstract List<O> process(List<I> batch) throws ApiException;
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super O> subscriber) {
+        synchronized (this) {
+            if (downstream == null && !done) {
+                downstream = subscriber;
+            } else if (downstream == null) {
+                // Upstream already completed without results.
+                subscriber.onSubscribe(new NoSubscription());
+                if (upstreamError != null) {
+                    subscriber.onError(upstreamError);
+                } else {
+                    subscriber.onComplete();
+                }
+                return;
+            } else {
+                subscriber.onSubscribe(new NoSubscription());
+                subscriber.onError(new IllegalStateException("a batching processor has a single subscriber"));
+                return;
+            }
+        }
+        subscriber.onSubscribe(new Subscription());
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (upstream != null || done) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+        }
+        requestUpstream();
+    }
+
+    @Override
+    public void onNext(I item) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            batch.add(item);
+            requested--;
+            if (requested <= 0) {
+                flush();
+            } else if (batch.size() == 1 && !inFlight) {
+                lingerTimer = executor.schedule(this::lingerExpired, lingerNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (this) {
+            upstreamError = throwable;
+        }
+        onComplete();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            upstreamDone = true;
+            requested = 0;
+            if (inFlight) {
+                return;
+            }
+            if (!batch.isEmpty()) {
+                flush();
+                return;
+            }
+        }
+        terminate(null);
+    }
+
+    private synchronized void lingerExpired() {
+        if (!inFlight && !batch.isEmpty()) {
+            flush();
+        }
+    }
+
+    // Called with the lock held.
+    private void flush() {
+        if (lingerTimer != null) {
+            lingerTimer.cancel(false);
+            lingerTimer = null;
+        }
+        if (inFlight || batch.isEmpty() || done) {
+            return;
+        }
+        inFlight = true;
+        var items = batch;
+        batch = new ArrayList<>();
+        executor.execute(() -> processBatch(items));
+    }
+
+    private void processBatch(List<I> items) {
+        List<O> results;
+        try {
+            results = process(items);
+        } catch (ApiException | RuntimeException e) {
+            cancelUpstream();
+            terminate(e);
+            return;
+        }
+
+        Flow.Subscriber<? super O> subscriber;
+        synchronized (this) {
+            subscriber = downstream;
+        }
+        for (var result : results) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                demand--;
+            }
+            subscriber.onNext(result);
+        }
+
+        boolean complete = false;
+        synchronized (this) {
+            inFlight = false;
+            if (done) {
+                return;
+            }
+            if (!batch.isEmpty() && (requested <= 0 || upstreamDone)) {
+                flush();
+            } else if (!batch.isEmpty()) {
+                lingerTimer = executor.schedule(this::lingerExpired, lingerNanos, TimeUnit.NANOSECONDS);
+            } else if (upstreamDone) {
+                complete = true;
+            }
+        }
+        if (complete) {
+            terminate(null);
+        } else {
+            requestUpstream();
+        }
+    }
+
+    // Wait for the batch in flight, once the processor terminated or its subscriber cancelled.
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    // Request the next batch if the subscriber wants results and nothing is pending.
+    private void requestUpstream() {
+        Flow.Subscription subscription;
+        long n;
+        synchronized (this) {
+            if (upstream == null || upstreamDone || done || inFlight || requested > 0 || !batch.isEmpty() || demand <= 0) {
+                return;
+            }
+            n = Math.min(demand, maxBatchSize);
+            requested = n;
+            subscription = upstream;
+        }
+        subscription.request(n);
+    }
+
+    private void cancelUpstream() {
+        Flow.Subscription subscription;
+        synchronized (this) {
+            subscription = upstream;
+            upstreamDone = true;
+        }
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    // Signal completion, or error when error is not null, once.
+    private void terminate(Throwable error) {
+        Flow.Subscriber<? super O> subscriber;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            subscriber = downstream;
+            if (error == null) {
+                error = upstreamError;
+            }
+        }
+        executor.shutdown();
+        if (subscriber == null) {
+            return;
+        }
+        if (error != null) {
+            subscriber.onError(error);
+        } else {
+            subscriber.onComplete();
+        }
+    }
+
+    private final class Subscription implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelUpstream();
+                terminate(new IllegalArgumentException("the requested number of results must be positive"));
+                return;
+            }
+            synchronized (BatchingProcessor.this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            requestUpstream();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (BatchingProcessor.this) {
+                done = true;
+                batch.clear();
+            }
+            cancelUpstream();
+            executor.shutdownNow();
+        }
+    }
+
+    private static final class NoSubscription implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+}
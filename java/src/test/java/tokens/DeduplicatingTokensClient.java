@@ -0,0 +1,194 @@
+package tokens;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.piiano.vault.client.openapi.ApiClient;
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.*;
+import common.JsonMappers;
+import metrics.VaultMetrics;
+
+import java.time.Duration;
+import java.util.*;
+
+// DeduplicatingTokensClient is a TokensClient that does not send the same deterministic
+// tokenize request twice.
+// - Identical DETERMINISTIC requests in a call to tokenize are sent once and their token
+//   value is returned at the position of each of them. Requests of other types create a
+//   new token each and are always sent.
+// - Optionally, the token values of recent deterministic requests by fields (not by object
+//   id) are cached, so requests repeated across calls are not sent either. Entries expire
+//   cacheTtl after they were added, and archiving, updating or rotating tokens of a
+//   collection clears its entries. Requests by object id are not cached because deleting
+//   the object archives the token.
+// Two requests are identical if they serialize to the same JSON: same type, props, tags and
+// object. The returned TokenValue instances may be shared between positions and callers
+// and must not be modified.
+public class DeduplicatingTokensClient extends TokensClient {
+
+    // Sorting the fields makes equal objects serialize equally.
+    private static final ObjectWriter REQUEST_WRITER =
+            JsonMappers.mapper().writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+    private final int cacheSize;
+    private final long cacheTtlNanos;
+    private final LinkedHashMap<CacheKey, CachedToken> cache = new LinkedHashMap<>(16, 0.75f, true);
+    // Incremented by every invalidation so that results fetched before it are not cached.
+    private long epoch;
+
+    public DeduplicatingTokensClient(ApiClient client) {
+        this(client, null, VaultMetrics.disabled(), 0, Duration.ZERO);
+    }
+
+    public DeduplicatingTokensClient(ApiClient client, int cacheSize, Duration cacheTtl) {
+        this(client, null, VaultMetrics.disabled(), cacheSize, cacheTtl);
+    }
+
+    // A cacheSize of 0 disables the cache.
+    public DeduplicatingTokensClient(ApiClient client, DetokenizeCache detokenizeCache, VaultMetrics metrics,
+                                     int cacheSize, Duration cacheTtl) {
+        super(client, detokenizeCache, metrics);
+        if (cacheSize < 0 || (cacheSize > 0 && (cacheTtl.isNegative() || cacheTtl.isZero()))) {
+            throw new IllegalArgumentException("cache size must not be negative and cache ttl must be positive");
+        }
+        this.cacheSize = cacheSize;
+        this.cacheTtlNanos = cacheTtl.toNanos();
+    }
+
+    @Override
+    public List<TokenValue> tokenize(String collectionName, List<TokenizeRequest> tokenizeRequest) throws ApiException {
+        var tokenValues = new TokenValue[tokenizeRequest.size()];
+        // The position in unique of the request at each position, or -1 if it was cached.
+        var uniqueIndexes = new int[tokenizeRequest.size()];
+        var unique = new ArrayList<TokenizeRequest>();
+        var uniqueKeys = new ArrayList<CacheKey>();
+        var indexesByKey = new HashMap<CacheKey, Integer>();
+
+        for (int i = 0; i < tokenizeRequest.size(); i++) {
+            var request = tokenizeRequest.get(i);
+            if (request.getType() != TokenType.DETERMINISTIC) {
+                uniqueIndexes[i] = unique.size();
+                unique.add(request);
+                uniqueKeys.add(null);
+                continue;
+            }
+            var key = new CacheKey(collectionName, json(request));
+            var cached = cached(key);
+            if (cached != null) {
+                tokenValues[i] = cached;
+                uniqueIndexes[i] = -1;
+                continue;
+            }
+            var index = indexesByKey.get(key);
+            if (index == null) {
+                index = unique.size();
+                indexesByKey.put(key, index);
+                unique.add(request);
+                uniqueKeys.add(key);
+            }
+            uniqueIndexes[i] = index;
+        }
+
+        if (!unique.isEmpty()) {
+            long fetchEpoch = epoch();
+            var fetched = super.tokenize(collectionName, unique);
+            for (int i = 0; i < tokenValues.length; i++) {
+                if (uniqueIndexes[i] >= 0) {
+                    tokenValues[i] = fetched.get(uniqueIndexes[i]);
+                }
+            }
+            for (int i = 0; i < unique.size(); i++) {
+                if (uniqueKeys.get(i) != null && isByFields(unique.get(i))) {
+                    cache(fetchEpoch, uniqueKeys.get(i), fetched.get(i));
+                }
+            }
+        }
+        return Arrays.asList(tokenValues);
+    }
+
+    @Override
+    public void archiveTokens(String collectionName, TokenDefinition tokens) throws ApiException {
+        try {
+            super.archiveTokens(collectionName, tokens);
+        } finally {
+            invalidate(collectionName);
+        }
+    }
+
+    @Override
+    public void updateTokens(String collectionName, TokenDefinition tokens, UpdateTokenRequest updateTokenRequest) throws ApiException {
+        try {
+            super.updateTokens(collectionName, tokens, updateTokenRequest);
+        } finally {
+            invalidate(collectionName);
+        }
+    }
+
+    @Override
+    public Map<String, String> rotateTokens(String collectionName, List<String> tokenIds) throws ApiException {
+        try {
+            return super.rotateTokens(collectionName, tokenIds);
+        } finally {
+            invalidate(collectionName);
+        }
+    }
+
+    public synchronized int cacheSize() {
+        return cache.size();
+    }
+
+    private synchronized long epoch() {
+        return epoch;
+    }
+
+    private synchronized TokenValue cached(CacheKey key) {
+        if (cacheSize == 0) {
+            return null;
+        }
+        var cached = cache.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (System.nanoTime() - cached.expiresAtNanos >= 0) {
+            cache.remove(key);
+            return null;
+        }
+        return cached.tokenValue;
+    }
+
+    private synchronized void cache(long fetchEpoch, CacheKey key, TokenValue tokenValue) {
+        if (cacheSize == 0 || fetchEpoch != epoch) {
+            return;
+        }
+        cache.put(key, new CachedToken(tokenValue, System.nanoTime() + cacheTtlNanos));
+        if (cache.size() > cacheSize) {
+            var eldest = cache.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private synchronized void invalidate(String collectionName) {
+        epoch++;
+        cache.keySet().removeIf(key -> key.collectionName.equals(collectionName));
+    }
+
+    private static boolean isByFields(TokenizeRequest request) {
+        return request.getObject() != null && request.getObject().getId() == null;
+    }
+
+    private static String json(TokenizeRequest request) {
+        try {
+            return REQUEST_WRITER.writeValueAsString(request);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private record CacheKey(String collectionName, String request) {
+    }
+
+    private record CachedToken(TokenValue tokenValue, long expiresAtNanos) {
+    }
+}
@@ -0,0 +1,208 @@
+package tokens;
+
+import com.piiano.vault.client.openapi.model.DetokenizedToken;
+import common.DaemonThreads;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+// DetokenizeCache is a bounded cache of detokenized tokens that TokensClient can use to
+// serve repeated detokenize calls by token id.
+// - Entries are keyed by collection, token id and the detokenize options, because the
+//   options change what detokenize returns.
+// - Eviction is a segmented LRU: new entries go to a probationary segment and are promoted
+//   to a protected segment on their second hit, so a scan of one-off token ids does not
+//   evict the hot ones.
+// - Entries expire ttl after they were added. Each entry is also purged in the background
+//   when it expires, so that plaintext is not kept in memory longer than ttl.
+// The cached DetokenizedToken instances are shared between callers and must not be modified.
+public class DetokenizeCache implements AutoCloseable {
+
+    private final int probationCapacity;
+    private final int protectedCapacity;
+    private final long ttlNanos;
+    private final LinkedHashMap<CacheKey, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<CacheKey, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    // Entries in the order they were added, which is also the order in which they expire.
+    private final ArrayDeque<Entry> expiryQueue = new ArrayDeque<>();
+    private final ScheduledExecutorService purger;
+    // The purge of the first entry of expiryQueue, or null if none is scheduled.
+    private ScheduledFuture<?> nextPurge;
+    // Incremented by every invalidation so that results fetched before it are not added.
+    private long epoch;
+
+    public DetokenizeCache(int maxSize, Duration ttl) {
+        if (maxSize < 2 || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("max size must be at least 2 and ttl must be positive");
+        }
+        this.protectedCapacity = maxSize * 4 / 5;
+        this.probationCapacity = maxSize - protectedCapacity;
+        this.ttlNanos = ttl.toNanos();
+        this.purger = Executors.newSingleThreadScheduledExecutor(DaemonThreads.named("detokenize-cache-purger"));
+    }
+
+    synchronized DetokenizedToken get(String collectionName, String tokenId, boolean includeMetadata, boolean archived) {
+        var key = new CacheKey(collectionName, tokenId, includeMetadata, archived);
+        long now = System.nanoTime();
+
+        var entry = protectedSegment.get(key);
+        if (entry != null) {
+            if (entry.isExpired(now)) {
+                protectedSegment.remove(key);
+                return null;
+            }
+            return entry.token;
+        }
+
+        entry = probation.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(now)) {
+            return null;
+        }
+        promote(entry);
+        return entry.token;
+    }
+
+    synchronized long epoch() {
+        return epoch;
+    }
+
+    // Add a detokenized token that was fetched when epoch() returned fetchEpoch. The token is
+    // not added if the cache was invalidated since, because it may already be stale.
+    synchronized void put(
+            long fetchEpoch, String collectionName, boolean includeMetadata, boolean archived, DetokenizedToken token) {
+
+        if (fetchEpoch != epoch) {
+            return;
+        }
+        var key = new CacheKey(collectionName, token.getTokenId(), includeMetadata, archived);
+        var entry = new Entry(key, token, System.nanoTime() + ttlNanos);
+
+        protectedSegment.remove(key);
+        probation.put(key, entry);
+        expiryQueue.add(entry);
+        evictExpired(System.nanoTime());
+        schedulePurge();
+
+        if (probation.size() > probationCapacity) {
+            var eldest = probation.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    // Remove all the entries of the token ids in the collection.
+    synchronized void invalidate(String collectionName, Collection<String> tokenIds) {
+        var ids = new HashSet<>(tokenIds);
+        removeIf(key -> key.collectionName.equals(collectionName) && ids.contains(key.tokenId));
+    }
+
+    // Remove all the entries of the collection.
+    synchronized void invalidate(String collectionName) {
+        removeIf(key -> key.collectionName.equals(collectionName));
+    }
+
+    public synchronized void clear() {
+        epoch++;
+        probation.clear();
+        protectedSegment.clear();
+        expiryQueue.clear();
+    }
+
+    public synchronized int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    @Override
+    public void close() {
+        purger.shutdownNow();
+        clear();
+    }
+
+    private synchronized void purgeExpired() {
+        nextPurge = null;
+        evictExpired(System.nanoTime());
+        schedulePurge();
+    }
+
+    // Entries are added in the order in which they expire, so the purge runs when the first
+    // one expires and is then scheduled for the next one.
+    private void schedulePurge() {
+        if (nextPurge != null || expiryQueue.isEmpty()) {
+            return;
+        }
+        long delay = Math.max(0, expiryQueue.peek().expiresAtNanos - System.nanoTime());
+        try {
+            nextPurge = purger.schedule(this::purgeExpired, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException closed) {
+            // The cache was closed and cleared.
+        }
+    }
+
+    private void promote(Entry entry) {
+        protectedSegment.put(entry.key, entry);
+        if (protectedSegment.size() > protectedCapacity) {
+            // Demote the least recently used protected entry, giving it another chance in probation.
+            var eldest = protectedSegment.values().iterator();
+            var demoted = eldest.next();
+            eldest.remove();
+            probation.put(demoted.key, demoted);
+            if (probation.size() > probationCapacity) {
+                var eldestProbation = probation.keySet().iterator();
+                eldestProbation.next();
+                eldestProbation.remove();
+            }
+        }
+    }
+
+    private void evictExpired(long now) {
+        while (!expiryQueue.isEmpty() && expiryQueue.peek().isExpired(now)) {
+            var expired = expiryQueue.poll();
+            // The key may have been evicted, or replaced by a newer entry.
+            probation.remove(expired.key, expired);
+            protectedSegment.remove(expired.key, expired);
+        }
+        // Drop the queue entries of evicted or invalidated entries once the queue has grown
+        // well beyond the cache so that it stays bounded.
+        if (expiryQueue.size() > 2 * (probationCapacity + protectedCapacity)) {
+            var live = Collections.newSetFromMap(new IdentityHashMap<Entry, Boolean>());
+            live.addAll(probation.values());
+            live.addAll(protectedSegment.values());
+            expiryQueue.removeIf(entry -> !live.contains(entry));
+        }
+    }
+
+    private void removeIf(Predicate<CacheKey> predicate) {
+        epoch++;
+        probation.keySet().removeIf(predicate);
+        protectedSegment.keySet().removeIf(predicate);
+        expiryQueue.removeIf(entry -> predicate.test(entry.key));
+    }
+
+    private record CacheKey(String collectionName, String tokenId, boolean includeMetadata, boolean archived) {
+    }
+
+    private static final class Entry {
+        private final CacheKey key;
+        private final DetokenizedToken token;
+        private final long expiresAtNanos;
+
+        private Entry(CacheKey key, DetokenizedToken token, long expiresAtNanos) {
+            this.key = key;
+            this.token = token;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAtNanos >= 0;
+        }
+    }
+}
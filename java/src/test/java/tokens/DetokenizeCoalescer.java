@@ -0,0 +1,166 @@
+package tokens;
+
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.DetokenizedToken;
+import common.DaemonThreads;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+// DetokenizeCoalescer merges concurrent single token detokenize calls into batches.
+// A call joins the pending batch of its collection and options. The batch is sent as
+// one detokenize call when it reaches maxBatchSize token ids or when window has passed
+// since its first call, whichever comes first.
+// Each call gets a future that completes with the detokenized token, with null if
+// detokenize did not return the token id (like the batch API, which omits unknown,
+// archived or rotated token ids), or exceptionally if the batch call failed. Once the
+// coalescer is closed the futures of new calls fail with an IllegalStateException.
+public class DetokenizeCoalescer implements AutoCloseable {
+
+    public static final Duration DEFAULT_WINDOW = Duration.ofMillis(2);
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    private final TokensClient tokensClient;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final Map<BatchKey, Batch> pending = new HashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executor;
+    // Guarded by pending.
+    private boolean closed;
+
+    public DetokenizeCoalescer(TokensClient tokensClient) {
+        this(tokensClient, DEFAULT_WINDOW, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public DetokenizeCoalescer(TokensClient tokensClient, Duration window, int maxBatchSize, int maxInFlight) {
+        if (window.isNegative() || maxBatchSize < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("window must not be negative, batch size and in flight limit must be positive");
+        }
+        this.tokensClient = tokensClient;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(DaemonThreads.named("detokenize-coalescer-timer"));
+        this.executor = Executors.newFixedThreadPool(maxInFlight, DaemonThreads.named("detokenize-coalescer"));
+    }
+
+    public CompletableFuture<DetokenizedToken> detokenize(
+            String collectionName, String tokenId, boolean includeMetadata, boolean archived) {
+
+        var key = new BatchKey(collectionName, includeMetadata, archived);
+        var future = new CompletableFuture<DetokenizedToken>();
+        Batch full = null;
+
+        synchronized (pending) {
+            if (closed) {
+                future.completeExceptionally(new IllegalStateException("the detokenize coalescer is closed"));
+                return future;
+            }
+            var batch = pending.get(key);
+            if (batch == null) {
+                batch = new Batch();
+                var scheduled = batch;
+                scheduler.schedule(() -> flush(key, scheduled), windowNanos, TimeUnit.NANOSECONDS);
+                pending.put(key, batch);
+            }
+            batch.add(tokenId, future);
+            if (batch.size() >= maxBatchSize) {
+                pending.remove(key);
+                full = batch;
+            }
+        }
+
+        if (full != null) {
+            dispatch(key, full);
+        }
+        return future;
+    }
+
+    // Send all pending batches and stop accepting new ones. Calls that are already
+    // in flight still complete.
+    @Override
+    public void close() {
+        List<Map.Entry<BatchKey, Batch>> remaining;
+        synchronized (pending) {
+            closed = true;
+            remaining = new ArrayList<>(pending.entrySet());
+            pending.clear();
+        }
+        remaining.forEach(entry -> dispatch(entry.getKey(), entry.getValue()));
+        scheduler.shutdownNow();
+        executor.shutdown();
+    }
+
+    private void flush(BatchKey key, Batch batch) {
+        synchronized (pending) {
+            // The batch may already have been sent because it became full.
+            if (!pending.remove(key, batch)) {
+                return;
+            }
+        }
+        dispatch(key, batch);
+    }
+
+    private void dispatch(BatchKey key, Batch batch) {
+        try {
+            executor.execute(() -> send(key, batch));
+        } catch (RejectedExecutionException e) {
+            batch.fail(e);
+        }
+    }
+
+    private void send(BatchKey key, Batch batch) {
+        try {
+            var detokenizedTokens = tokensClient.detokenize(
+                    key.collectionName(),
+                    TokenDefinition.fromTokenIds(new ArrayList<>(batch.callers.keySet())),
+                    key.includeMetadata(),
+                    key.archived());
+
+            for (var detokenizedToken : detokenizedTokens) {
+                var callers = batch.callers.remove(detokenizedToken.getTokenId());
+                if (callers != null) {
+                    callers.forEach(caller -> caller.complete(detokenizedToken));
+                }
+            }
+            // Token ids that were not returned.
+            batch.callers.values().forEach(callers -> callers.forEach(caller -> caller.complete(null)));
+        } catch (ApiException | RuntimeException e) {
+            batch.fail(e);
+        }
+    }
+
+    private record BatchKey(String collectionName, boolean includeMetadata, boolean archived) {
+    }
+
+    // The callers waiting for each token id of a batch. The same token id may be
+    // requested by several callers but is sent only once.
+    private static final class Batch {
+        private final Map<String, List<CompletableFuture<DetokenizedToken>>> callers = new HashMap<>();
+        private int size;
+
+        private void add(String tokenId, CompletableFuture<DetokenizedToken> caller) {
+            var callersOfTokenId = callers.get(tokenId);
+            if (callersOfTokenId == null) {
+                callersOfTokenId = new ArrayList<>(1);
+                callers.put(tokenId, callersOfTokenId);
+                size++;
+            }
+            callersOfTokenId.add(caller);
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private void fail(Throwable cause) {
+            callers.values().forEach(callersOfTokenId -> callersOfTokenId.forEach(
+                    caller -> caller.completeExceptionally(cause)));
+        }
+    }
+}
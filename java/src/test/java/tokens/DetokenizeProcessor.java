@@ -0,0 +1,37 @@
+package tokens;
+
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.DetokenizedToken;
+
+import java.time.Duration;
+import java.util.List;
+
+// DetokenizeProcessor detokenizes a stream of token ids with backpressure, in batches sized
+// by the demand of its subscriber (see BatchingProcessor).
+// Token ids that are not found are skipped.
+public class DetokenizeProcessor extends BatchingProcessor<String, DetokenizedToken> {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 250;
+    public static final Duration DEFAULT_LINGER = Duration.ofMillis(20);
+
+    private final TokensClient tokensClient;
+    private final String collectionName;
+    private final boolean includeMetadata;
+
+    public DetokenizeProcessor(TokensClient tokensClient, String collectionName, boolean includeMetadata) {
+        this(tokensClient, collectionName, includeMetadata, DEFAULT_MAX_BATCH_SIZE, DEFAULT_LINGER);
+    }
+
+    public DetokenizeProcessor(TokensClient tokensClient, String collectionName, boolean includeMetadata,
+                               int maxBatchSize, Duration linger) {
+        super(maxBatchSize, linger, "detokenize-processor");
+        this.tokensClient = tokensClient;
+        this.collectionName = collectionName;
+        this.includeMetadata = includeMetadata;
+    }
+
+    @Override
+    List<DetokenizedToken> process(List<String> batch) throws ApiException {
+        return tokensClient.detokenize(collectionName, TokenDefinition.fromTokenIds(batch), includeMetadata, false);
+    }
+}
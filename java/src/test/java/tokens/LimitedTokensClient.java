@@ -0,0 +1,73 @@
+package tokens;
+
+import com.piiano.vault.client.openapi.ApiClient;
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.*;
+import limits.Lane;
+import limits.VaultLimiter;
+import metrics.VaultMetrics;
+
+import java.util.List;
+import java.util.Map;
+
+// LimitedTokensClient is a TokensClient whose calls are paced by a VaultLimiter in a lane.
+// Clients of different lanes should share the limiter, e.g. a BULK client used by a
+// TokenizationEngine and an INTERACTIVE client used by online requests.
+public class LimitedTokensClient extends TokensClient {
+
+    private final VaultLimiter limiter;
+    private final Lane lane;
+
+    public LimitedTokensClient(ApiClient client, VaultLimiter limiter, Lane lane) {
+        this(client, null, VaultMetrics.disabled(), limiter, lane);
+    }
+
+    public LimitedTokensClient(ApiClient client, DetokenizeCache detokenizeCache, VaultMetrics metrics,
+                               VaultLimiter limiter, Lane lane) {
+        super(client, detokenizeCache, metrics);
+        this.limiter = limiter;
+        this.lane = lane;
+    }
+
+    @Override
+    public List<TokenValue> tokenize(String collectionName, List<TokenizeRequest> tokenizeRequest) throws ApiException {
+        return limiter.call("tokens.tokenize", lane, tokenizeRequest.size(),
+                () -> super.tokenize(collectionName, tokenizeRequest));
+    }
+
+    @Override
+    public List<DetokenizedToken> detokenize(String collectionName, TokenDefinition tokens, boolean includeMetadata, boolean archived) throws ApiException {
+        return limiter.call("tokens.detokenize", lane, permits(tokens),
+                () -> super.detokenize(collectionName, tokens, includeMetadata, archived));
+    }
+
+    @Override
+    public void archiveTokens(String collectionName, TokenDefinition tokens) throws ApiException {
+        limiter.call("tokens.archive", lane, permits(tokens), () -> {
+            super.archiveTokens(collectionName, tokens);
+            return null;
+        });
+    }
+
+    @Override
+    public List<TokenMetadata> searchTokens(String collectionName, QueryToken queryToken) throws ApiException {
+        return limiter.call("tokens.search", lane, 1, () -> super.searchTokens(collectionName, queryToken));
+    }
+
+    @Override
+    public void updateTokens(String collectionName, TokenDefinition tokens, UpdateTokenRequest updateTokenRequest) throws ApiException {
+        limiter.call("tokens.update", lane, permits(tokens), () -> {
+            super.updateTokens(collectionName, tokens, updateTokenRequest);
+            return null;
+        });
+    }
+
+    @Override
+    public Map<String, String> rotateTokens(String collectionName, List<String> tokenIds) throws ApiException {
+        return limiter.call("tokens.rotate", lane, tokenIds.size(), () -> super.rotateTokens(collectionName, tokenIds));
+    }
+
+    private static int permits(TokenDefinition tokens) {
+        return tokens.tokenIds() == null ? 1 : tokens.tokenIds().size();
+    }
+}
@@ -0,0 +1,5 @@
+package tokens;
+
+// RotatedToken is a token id and the id that replaced it when the token was rotated.
+public record RotatedToken(String oldTokenId, String newTokenId) {
+}
@@ -0,0 +1,224 @@
+package tokens;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// RotationLog is the append-only mapping file of a TokenRotationEngine and its checkpoint.
+// The mapping file has a line "oldTokenId,newTokenId" per rotated token. The lines of a batch
+// are followed by a commit line "# batch <sequence>"; lines without a commit are not part of
+// the mapping. Batches are appended in the order they complete.
+// The checkpoint, next to the mapping file, records the batch size, the first batch that is
+// not rotated yet, the later batches that are already rotated, and the length of the mapping
+// file. It is replaced atomically after each batch, once the mapping file is forced to disk.
+// On resume the batches committed after the checkpoint are read from the end of the mapping
+// file, and an incomplete batch at its end is truncated.
+final class RotationLog implements AutoCloseable {
+
+    private static final String COMMIT_PREFIX = "# batch ";
+
+    private final Path checkpointFile;
+    private final FileChannel channel;
+    private final int batchSize;
+    // The first batch that is not rotated, and the rotated batches that follow it.
+    private long nextBatch;
+    private final TreeSet<Long> doneBatches = new TreeSet<>();
+
+    private RotationLog(Path mappingFile, int batchSize) throws IOException {
+        this.checkpointFile = checkpointFile(mappingFile);
+        this.batchSize = batchSize;
+        this.channel = FileChannel.open(mappingFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // Open the mapping file, resuming from its checkpoint if there is one.
+    static RotationLog open(Path mappingFile, int batchSize) throws IOException {
+        var checkpointFile = checkpointFile(mappingFile);
+        if (!Files.exists(checkpointFile)) {
+            if (Files.exists(mappingFile)) {
+                // The mapping of a completed rotation is never overwritten.
+                throw new FileAlreadyExistsException(mappingFile.toString());
+            }
+            var log = new RotationLog(mappingFile, batchSize);
+            log.writeCheckpoint();
+            return log;
+        }
+
+        var checkpoint = new Properties();
+        try (var reader = Files.newBufferedReader(checkpointFile)) {
+            checkpoint.load(reader);
+        }
+        var log = new RotationLog(mappingFile, Integer.parseInt(checkpoint.getProperty("batchSize")));
+        log.nextBatch = Long.parseLong(checkpoint.getProperty("nextBatch"));
+        for (var batch : checkpoint.getProperty("doneBatches", "").split(",")) {
+            if (!batch.isEmpty()) {
+                log.doneBatches.add(Long.parseLong(batch));
+            }
+        }
+        log.recover(Long.parseLong(checkpoint.getProperty("length")));
+        log.advance();
+        log.writeCheckpoint();
+        return log;
+    }
+
+    // The committed mappings of a mapping file.
+    static Stream<RotatedToken> read(Path mappingFile) throws IOException {
+        var reader = Files.newBufferedReader(mappingFile);
+        var iterator = new Iterator<RotatedToken>() {
+            private final Deque<RotatedToken> committed = new ArrayDeque<>();
+            private final List<RotatedToken> pending = new ArrayList<>();
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    String line;
+                    while (committed.isEmpty() && (line = reader.readLine()) != null) {
+                        if (line.startsWith(COMMIT_PREFIX)) {
+                            committed.addAll(pending);
+                            pending.clear();
+                        } else {
+                            int comma = line.indexOf(',');
+                            pending.add(new RotatedToken(line.substring(0, comma), line.substring(comma + 1)));
+                        }
+                    }
+                    return !committed.isEmpty();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public RotatedToken next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return committed.removeFirst();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    int batchSize() {
+        return batchSize;
+    }
+
+    synchronized boolean isDone(long batch) {
+        return batch < nextBatch || doneBatches.contains(batch);
+    }
+
+    synchronized long doneBatchCount() {
+        return nextBatch + doneBatches.size();
+    }
+
+    // Append the mapping of a batch, force it to disk and advance the checkpoint.
+    synchronized void commit(long batch, Map<String, String> rotatedTokens) throws IOException {
+        var lines = new StringBuilder(rotatedTokens.size() * 80);
+        for (var entry : rotatedTokens.entrySet()) {
+            lines.append(entry.getKey()).append(',').append(entry.getValue()).append('\n');
+        }
+        lines.append(COMMIT_PREFIX).append(batch).append('\n');
+
+        var buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        long position = channel.size();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.force(false);
+
+        doneBatches.add(batch);
+        advance();
+        writeCheckpoint();
+    }
+
+    // The rotation is complete, the checkpoint is no longer needed.
+    void complete() throws IOException {
+        channel.force(true);
+        Files.delete(checkpointFile);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Read the batches committed after the checkpoint and drop an incomplete batch.
+    // A commit line counts only when it is complete: a crash may have torn it, e.g. leaving
+    // "# batch 1" of "# batch 12". The file is truncated after the last complete commit.
+    private void recover(long checkpointLength) throws IOException {
+        long committedLength = checkpointLength;
+        long offset = checkpointLength;
+        long size = channel.size();
+        channel.position(checkpointLength);
+        var reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Token ids and the commit lines are ASCII.
+            offset += line.length() + 1;
+            if (line.startsWith(COMMIT_PREFIX)) {
+                var batch = offset <= size ? parseBatch(line) : null;
+                if (batch == null) {
+                    break;
+                }
+                doneBatches.add(batch);
+                committedLength = offset;
+            }
+        }
+        channel.truncate(Math.min(committedLength, size));
+        channel.force(false);
+    }
+
+    // The sequence of a commit line, or null if it is not a valid commit line.
+    private static Long parseBatch(String line) {
+        try {
+            return Long.parseLong(line.substring(COMMIT_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void advance() {
+        while (doneBatches.remove(nextBatch)) {
+            nextBatch++;
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        var checkpoint = new Properties();
+        checkpoint.setProperty("batchSize", String.valueOf(batchSize));
+        checkpoint.setProperty("nextBatch", String.valueOf(nextBatch));
+        var done = new StringJoiner(",");
+        doneBatches.forEach(batch -> done.add(String.valueOf(batch)));
+        checkpoint.setProperty("doneBatches", done.toString());
+        checkpoint.setProperty("length", String.valueOf(channel.size()));
+
+        var temporary = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (var writer = Files.newBufferedWriter(temporary)) {
+            checkpoint.store(writer, "token rotation checkpoint");
+        }
+        Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static Path checkpointFile(Path mappingFile) {
+        return mappingFile.resolveSibling(mappingFile.getFileName() + ".checkpoint");
+    }
+}
@@ -0,0 +1,8 @@
+package tokens;
+
+import java.nio.file.Path;
+
+// RotationResult summarizes a run of the TokenRotationEngine.
+// resumedBatches is the number of batches that an earlier run had already rotated.
+public record RotationResult(long rotatedTokens, long batches, long resumedBatches, Path mappingFile) {
+}
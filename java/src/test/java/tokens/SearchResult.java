@@ -1,40 +1,31 @@
 package tokens;
 
 import com.piiano.vault.client.openapi.model.TokenMetadata;
-import com.piiano.vault.client.openapi.model.TokenRefMetadata;
 
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 // SearchResult contains all the information returned by the search API method.
+// The token ids and the object ids they reference are kept in a TokenIndex.
 class SearchResult {
-    private final Map<UUID, String> objectIdToTokenId = new TreeMap<>();
-    private final Map<String, List<UUID>> tokenIdToObjectIds = new TreeMap<>();
-    private final Map<UUID, List<TokenRefMetadata>> objectIdToRefMetadataList = new TreeMap<>();
+    private final TokenIndex index;
 
     SearchResult(List<TokenMetadata> tokenMetadata) {
+        index = new TokenIndex(tokenMetadata.size());
         for (var datum : tokenMetadata) {
             var tokenId = datum.getTokenId();
-            var objectIds = datum.getTokens().stream().map(
-                    TokenRefMetadata::getObjectId
-            ).collect(Collectors.toList());
-
-            tokenIdToObjectIds.put(tokenId, objectIds);
-            for (var objectId : objectIds) {
-                objectIdToTokenId.put(objectId, tokenId);
-                objectIdToRefMetadataList.put(objectId, datum.getTokens());
+            index.addTokenId(tokenId);
+            for (var reference : datum.getTokens()) {
+                index.add(reference.getObjectId(), tokenId);
             }
         }
     }
 
     List<UUID> getObjectIds(String tokenId) {
-        return tokenIdToObjectIds.get(tokenId);
+        return index.objectIds(tokenId);
     }
 
     String getTokenId(UUID objectId) {
-        return objectIdToTokenId.get(objectId);
+        return index.tokenId(objectId);
     }
 }
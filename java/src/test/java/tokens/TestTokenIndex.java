@@ -0,0 +1,119 @@
+package tokens;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+// The index is compared with the TreeMaps that TokenizeResult and SearchResult used to keep:
+// the latest token id of each object id, and the object ids of each token id in insertion order.
+public class TestTokenIndex {
+
+    // Much more than the capacity of an index created for one entry, so the entries, the
+    // arena and both hash tables grow several times.
+    private static final int ENTRIES = 20_000;
+
+    private final Random random = new Random(42);
+    private final TokenIndex index = new TokenIndex(1);
+    private final Map<UUID, String> tokenIdOfObjectId = new TreeMap<>();
+    private final Map<String, List<UUID>> objectIdsOfTokenId = new TreeMap<>();
+    private final List<UUID> objectIds = new ArrayList<>();
+    private final List<String> tokenIds = new ArrayList<>();
+
+    @Test
+    public void matchesTreeMapsThroughRehashes() {
+        for (int i = 0; i < ENTRIES; i++) {
+            // Some objects are added again with another token id, and some token ids
+            // reference several objects.
+            var objectId = objectIds.isEmpty() || random.nextInt(4) != 0
+                    ? newUuid() : objectIds.get(random.nextInt(objectIds.size()));
+            var tokenId = tokenIds.isEmpty() || random.nextInt(3) != 0
+                    ? newTokenId(i) : tokenIds.get(random.nextInt(tokenIds.size()));
+            add(objectId, tokenId);
+            if (i % 2500 == 0) {
+                // The sorted views are rebuilt after they were read.
+                assertIndexEquals();
+            }
+        }
+        assertIndexEquals();
+    }
+
+    @Test
+    public void tokenIdsWithoutObjects() {
+        for (int i = 0; i < ENTRIES / 10; i++) {
+            var tokenId = newTokenId(i);
+            Assertions.assertTrue(index.addTokenId(tokenId));
+            Assertions.assertFalse(index.addTokenId(tokenId));
+            objectIdsOfTokenId.put(tokenId, new ArrayList<>());
+            tokenIds.add(tokenId);
+            if (random.nextBoolean()) {
+                add(newUuid(), tokenId);
+            }
+        }
+        assertIndexEquals();
+    }
+
+    @Test
+    public void latestTokenIdWins() {
+        var objectId = newUuid();
+        index.add(objectId, "first");
+        index.add(objectId, "s\u00e9cond");
+        index.add(newUuid(), "first");
+
+        Assertions.assertEquals("s\u00e9cond", index.tokenId(objectId));
+        Assertions.assertEquals(List.of(objectId), index.objectIds("s\u00e9cond"));
+        // The object id is still listed under the token ids it referenced before.
+        Assertions.assertEquals(objectId, index.objectIds("first").get(0));
+        Assertions.assertEquals(3, index.size());
+        Assertions.assertEquals(2, index.sortedObjectIds().size());
+        Assertions.assertEquals(List.of("first", "s\u00e9cond"), index.sortedTokenIds());
+    }
+
+    private void add(UUID objectId, String tokenId) {
+        index.add(objectId, tokenId);
+        if (tokenIdOfObjectId.put(objectId, tokenId) == null) {
+            objectIds.add(objectId);
+        }
+        if (!objectIdsOfTokenId.containsKey(tokenId)) {
+            tokenIds.add(tokenId);
+        }
+        objectIdsOfTokenId.computeIfAbsent(tokenId, key -> new ArrayList<>()).add(objectId);
+    }
+
+    private void assertIndexEquals() {
+        Assertions.assertEquals(
+                objectIdsOfTokenId.values().stream().mapToInt(List::size).sum(), index.size());
+        Assertions.assertEquals(new ArrayList<>(tokenIdOfObjectId.keySet()), index.sortedObjectIds());
+        Assertions.assertEquals(new ArrayList<>(objectIdsOfTokenId.keySet()), index.sortedTokenIds());
+        for (var entry : tokenIdOfObjectId.entrySet()) {
+            Assertions.assertEquals(entry.getValue(), index.tokenId(entry.getKey()));
+        }
+        for (var entry : objectIdsOfTokenId.entrySet()) {
+            Assertions.assertEquals(entry.getValue(), index.objectIds(entry.getKey()));
+        }
+
+        Assertions.assertNull(index.tokenId(newUuid()));
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertNull(index.objectIds(newTokenId(ENTRIES + i)));
+        }
+    }
+
+    // A UUID, or, three times in eight, a token id with 2, 3 or 4 byte UTF-8 characters,
+    // which is looked up by its bytes.
+    private String newTokenId(int i) {
+        switch (random.nextInt(8)) {
+            case 0:
+                return "t\u00f6k\u00e9n-" + i;
+            case 1:
+                return "\u4ee4\u724c-" + i;
+            case 2:
+                return "tok-\ud83d\udd11-" + i;
+            default:
+                return newUuid().toString();
+        }
+    }
+
+    private UUID newUuid() {
+        return new UUID(random.nextLong(), random.nextLong());
+    }
+}
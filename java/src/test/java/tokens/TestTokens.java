@@ -6,17 +6,38 @@ import com.piiano.vault.client.openapi.ApiClient;
 import com.piiano.vault.client.openapi.ApiException;
 import com.piiano.vault.client.openapi.model.*;
 import common.*;
+import limits.Lane;
+import metrics.HdrMetricsRegistry;
+import metrics.VaultMetrics;
+import limits.VaultLimiter;
 import objects.ObjectsClient;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.api.parallel.ResourceAccessMode;
+import org.junit.jupiter.api.parallel.ResourceLock;
+import org.junit.jupiter.api.parallel.Resources;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -31,7 +52,9 @@ public class TestTokens {
     private final CollectionSetup setup = new CollectionSetup();
 
     private final List<String> props = ImmutableList.of("id", "ssn", "email");
-    private final List<String> tags = ImmutableList.of("token_tag_1");
+    // The collection may come from an earlier test, whose tokens are archived rather than
+    // deleted, so the tokens of each test have their own tags.
+    private final List<String> tags = ImmutableList.of("token_tag_" + UUID.randomUUID());
 
     private static Stream<Arguments> tokenizationTypeAndArchived() {
         return Stream.of(
@@ -62,7 +85,11 @@ public class TestTokens {
 
     @AfterEach()
     public void afterEach() throws ApiException {
-        setup.tearDown();
+        try {
+            setup.tearDown();
+        } finally {
+            Client.close(apiClient);
+        }
     }
 
     @ParameterizedTest
@@ -84,6 +111,247 @@ public class TestTokens {
         assertDetokenizeResultIsCorrect(tokenizeResult, detokenizeResult);
     }
 
+    @ParameterizedTest
+    @MethodSource("reversibleTokenTypes")
+    public void batchTokenizeAndCoalescedDetokenize(TokenType tokenType) throws ApiException {
+
+        TokenizeResult tokenizeResult = batchTokenize(tokenType);
+        DetokenizeResult detokenizeResult = coalescedDetokenize(tokenizeResult);
+
+        assertDetokenizeResultIsCorrect(tokenizeResult, detokenizeResult);
+    }
+
+    @Test
+    public void coalescedDetokenizeFailsAfterClose() throws ApiException {
+        TokenizeResult tokenizeResult = batchTokenize(TokenType.POINTER);
+        var tokenId = tokenizeResult.getTokenIds().get(0);
+        var coalescer = new DetokenizeCoalescer(tokensClient);
+        coalescer.close();
+
+        // Calls with the same key must not join a batch that is never sent.
+        for (int i = 0; i < 2; i++) {
+            var future = coalescer.detokenize(setup.getCollection().getName(), tokenId, true, false);
+            var failure = Assertions.assertThrows(CompletionException.class, future::join);
+            Assertions.assertTrue(failure.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("reversibleTokenTypes")
+    public void pipelinedTokenizeAndBatchDetokenize(TokenType tokenType) throws ApiException {
+
+        // Tokenize one request per chunk so that the chunks are in flight concurrently.
+        TokenizeResult tokenizeResult;
+        try (var engine = new TokenizationEngine(tokensClient, 1, 2)) {
+            tokenizeResult = engine.tokenize(
+                    setup.getCollection().getName(),
+                    setup.getObjectIds().stream().map(id -> createTokenizeRequest(tokenType, id, props, tags)));
+        }
+        DetokenizeResult detokenizedResult = batchDetokenize();
+
+        assertDetokenizeResultIsCorrect(tokenizeResult, detokenizedResult);
+    }
+
+    @Test
+    public void pipelinedTokenizeStopsAtTheFirstFailure() {
+        var calls = new int[1];
+        var failingClient = new TokensClient(apiClient) {
+            @Override
+            public List<TokenValue> tokenize(String collectionName, List<TokenizeRequest> tokenizeRequest)
+                    throws ApiException {
+                calls[0]++;
+                throw new ApiException(Response.Status.BAD_REQUEST.getStatusCode(), "rejected");
+            }
+        };
+        var requests = setup.getObjectIds().stream()
+                .map(id -> createTokenizeRequest(TokenType.POINTER, id, props, tags))
+                .collect(toList());
+
+        // One request per chunk and one chunk in flight: the chunks after the failed one are not sent.
+        try (var engine = new TokenizationEngine(failingClient, 1, 1)) {
+            var failure = Assertions.assertThrows(ApiException.class,
+                    () -> engine.tokenize(setup.getCollection().getName(), requests.stream()));
+            Assertions.assertEquals(400, failure.getCode());
+            Assertions.assertEquals(1, calls[0]);
+
+            // A request by fields has no object id to match its token with.
+            var byFields = createTokenizeRequest(TokenType.POINTER, null, props, tags);
+            byFields.getObject().setFields(Map.of("email", "jo@somemail.com"));
+            Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> engine.tokenize(setup.getCollection().getName(), Stream.of(byFields)));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("reversibleTokenTypes")
+    public void asyncTokenizeAndDetokenize(TokenType tokenType) {
+        var collectionName = setup.getCollection().getName();
+        var tokenizeRequests = setup.getObjectIds().stream()
+                .map(id -> createTokenizeRequest(tokenType, id, props, tags))
+                .collect(toList());
+
+        var tokenizeResult = tokensClient.tokenizeAsync(collectionName, tokenizeRequests)
+                .thenApply(tokenValues -> new TokenizeResult(setup.getObjectIds(), tokenValues));
+        var detokenizeResult = tokenizeResult
+                .thenCompose(tokenized -> tokensClient.detokenizeAsync(
+                        collectionName, TokenDefinition.fromTags(tags), true, false))
+                .thenApply(DetokenizeResult::new)
+                .orTimeout(30, TimeUnit.SECONDS);
+
+        assertDetokenizeResultIsCorrect(tokenizeResult.join(), detokenizeResult.join());
+    }
+
+    @ParameterizedTest
+    @MethodSource("reversibleTokenTypes")
+    public void streamingTokenizeAndDetokenize(TokenType tokenType) throws Exception {
+        var collectionName = setup.getCollection().getName();
+
+        var tokenizedObjects = new ArrayList<TokenizedObject>();
+        var tokenizeProcessor = new TokenizeProcessor(tokensClient, collectionName, 2, Duration.ofMillis(5));
+        publishAndCollect(
+                setup.getObjectIds().stream().map(id -> createTokenizeRequest(tokenType, id, props, tags)).collect(toList()),
+                tokenizeProcessor, tokenizedObjects);
+        var objectIds = tokenizedObjects.stream().map(TokenizedObject::objectId).collect(toList());
+        Assertions.assertEquals(setup.getObjectIds(), objectIds);
+        var tokenizeResult = new TokenizeResult(
+                objectIds, tokenizedObjects.stream().map(TokenizedObject::tokenValue).collect(toList()));
+
+        var detokenizedTokens = new ArrayList<DetokenizedToken>();
+        var detokenizeProcessor = new DetokenizeProcessor(tokensClient, collectionName, true, 2, Duration.ofMillis(5));
+        publishAndCollect(tokenizeResult.getTokenIds(), detokenizeProcessor, detokenizedTokens);
+
+        assertDetokenizeResultIsCorrect(tokenizeResult, new DetokenizeResult(detokenizedTokens));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"1, 3, 7", "2, 3, 4", "100, 3, 3"})
+    public void streamingTokenizeInBatchesSizedByTheDemand(long demand, int maxBatchSize, long batches)
+            throws Exception {
+        var registry = new HdrMetricsRegistry();
+        var metricsClient = new TokensClient(apiClient, null, new VaultMetrics(registry));
+        var requests = streamingTokenizeRequests(7);
+
+        // The linger is too long to flush any batch, batches are sent when they are full or
+        // when the publisher completes.
+        var tokenizedObjects = new ArrayList<TokenizedObject>();
+        var processor = new TokenizeProcessor(
+                metricsClient, setup.getCollection().getName(), maxBatchSize, Duration.ofMinutes(1));
+        var completed = collect(processor, tokenizedObjects, demand);
+        try (var publisher = new SubmissionPublisher<TokenizeRequest>()) {
+            publisher.subscribe(processor);
+            requests.forEach(publisher::submit);
+        }
+        completed.get(30, TimeUnit.SECONDS);
+
+        Assertions.assertEquals(requests.stream().map(request -> request.getObject().getId()).collect(toList()),
+                tokenizedObjects.stream().map(TokenizedObject::objectId).collect(toList()));
+        var stats = registry.snapshot().get("tokens.tokenize");
+        Assertions.assertEquals(batches, stats.count());
+        Assertions.assertEquals((double) requests.size() / batches, stats.meanBatchSize(), 0.01);
+    }
+
+    // The linger is measured in real time, so the test runs alone.
+    @Test
+    @ResourceLock(value = Resources.GLOBAL, mode = ResourceAccessMode.READ_WRITE)
+    public void streamingTokenizeFlushesAfterTheLinger() throws Exception {
+        var registry = new HdrMetricsRegistry();
+        var metricsClient = new TokensClient(apiClient, null, new VaultMetrics(registry));
+        var requests = streamingTokenizeRequests(4);
+
+        var tokenizedObjects = new ArrayList<TokenizedObject>();
+        var processor = new TokenizeProcessor(
+                metricsClient, setup.getCollection().getName(), 100, Duration.ofMillis(5));
+        var completed = collect(processor, tokenizedObjects, 100);
+        try (var publisher = new SubmissionPublisher<TokenizeRequest>()) {
+            publisher.subscribe(processor);
+            // The first two requests are tokenized while the publisher is still open, only
+            // because the linger expired.
+            publisher.submit(requests.get(0));
+            publisher.submit(requests.get(1));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (size(tokenizedObjects) < 2 && System.nanoTime() - deadline < 0) {
+                TimeUnit.MILLISECONDS.sleep(5);
+            }
+            Assertions.assertEquals(2, size(tokenizedObjects));
+            publisher.submit(requests.get(2));
+            publisher.submit(requests.get(3));
+        }
+        completed.get(30, TimeUnit.SECONDS);
+
+        Assertions.assertEquals(4, tokenizedObjects.size());
+        var stats = registry.snapshot().get("tokens.tokenize");
+        Assertions.assertEquals(2, stats.count());
+        Assertions.assertEquals(2.0, stats.meanBatchSize(), 0.01);
+    }
+
+    @Test
+    public void streamingTokenizeStopsWhenTheSubscriberCancels() throws Exception {
+        var registry = new HdrMetricsRegistry();
+        var metricsClient = new TokensClient(apiClient, null, new VaultMetrics(registry));
+        var requests = streamingTokenizeRequests(30);
+
+        var tokenizedObjects = new ArrayList<TokenizedObject>();
+        var cancelled = new CompletableFuture<Void>();
+        var processor = new TokenizeProcessor(
+                metricsClient, setup.getCollection().getName(), 2, Duration.ofMinutes(1));
+        processor.subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(10);
+            }
+
+            @Override
+            public void onNext(TokenizedObject tokenizedObject) {
+                tokenizedObjects.add(tokenizedObject);
+                subscription.cancel();
+                cancelled.complete(null);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                cancelled.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                cancelled.completeExceptionally(new IllegalStateException("completed after cancel"));
+            }
+        });
+        try (var publisher = new SubmissionPublisher<TokenizeRequest>()) {
+            publisher.subscribe(processor);
+            requests.forEach(publisher::submit);
+            cancelled.get(30, TimeUnit.SECONDS);
+        }
+
+        // The rest of the first batch is not published and no other batch is sent.
+        Assertions.assertTrue(processor.awaitTermination(30, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, tokenizedObjects.size());
+        Assertions.assertEquals(1, registry.snapshot().get("tokens.tokenize").count());
+    }
+
+    @ParameterizedTest
+    @MethodSource("reversibleTokenTypes")
+    public void rateLimitedBulkTokenizeAndInteractiveDetokenize(TokenType tokenType) throws ApiException {
+        var limiter = new VaultLimiter().rateLimit("tokens.tokenize", Lane.BULK, 100, 1);
+        var bulkClient = new LimitedTokensClient(apiClient, limiter, Lane.BULK);
+        var interactiveClient = new LimitedTokensClient(apiClient, limiter, Lane.INTERACTIVE);
+
+        TokenizeResult tokenizeResult;
+        try (var engine = new TokenizationEngine(bulkClient, 1, 4)) {
+            tokenizeResult = engine.tokenize(
+                    setup.getCollection().getName(),
+                    setup.getObjectIds().stream().map(id -> createTokenizeRequest(tokenType, id, props, tags)));
+        }
+        var detokenizedTokens = interactiveClient.detokenize(
+                setup.getCollection().getName(), TokenDefinition.fromTags(tags), true, false);
+
+        assertDetokenizeResultIsCorrect(tokenizeResult, new DetokenizeResult(detokenizedTokens));
+        Assertions.assertEquals(0, limiter.concurrencyLimiter().inFlight());
+    }
+
     @ParameterizedTest
     @MethodSource("tokenizationTypeAndArchived")
     public void cannotDetokenizeArchivedObjects(
@@ -143,6 +411,104 @@ public class TestTokens {
         assertDetokenizeResultIsCorrect(rotatedTokenizeResult, detokenizeResult);
     }
 
+    @ParameterizedTest
+    @MethodSource("reversibleTokenTypes")
+    public void detokenizeWithTokensRotatedByEngine(TokenType tokenType, @TempDir Path directory)
+            throws ApiException, IOException {
+
+        TokenizeResult tokenizeResult = batchTokenize(tokenType);
+
+        // Rotate one token per batch, so that the batches are in flight concurrently.
+        var mappingFile = directory.resolve("rotated-tokens.csv");
+        try (var engine = new TokenRotationEngine(tokensClient, 1, 2)) {
+            var result = engine.rotate(
+                    setup.getCollection().getName(), tokenizeResult.getTokenIds().stream(), mappingFile);
+            Assertions.assertEquals(tokenizeResult.getTokenIds().size(), result.rotatedTokens());
+        }
+
+        Map<String, String> rotatedTokens;
+        try (var mappings = TokenRotationEngine.mappings(mappingFile)) {
+            rotatedTokens = mappings.collect(Collectors.toMap(RotatedToken::oldTokenId, RotatedToken::newTokenId));
+        }
+        var rotatedTokenizeResult = new RotateResult(rotatedTokens).rotate(tokenizeResult);
+
+        assertDetokenizeResultIsCorrect(rotatedTokenizeResult, singleDetokenize(rotatedTokenizeResult));
+    }
+
+    // The tail of a mapping file after a crash: an uncommitted mapping followed by a torn
+    // commit line, e.g. "# batch 2" of "# batch 21", or "# batch " of any commit line.
+    @ParameterizedTest
+    @ValueSource(strings = {"# batch 2", "# batch "})
+    public void resumeRotationWithTornMappingFile(String tornCommit, @TempDir Path directory)
+            throws ApiException, IOException {
+
+        TokenizeResult tokenizeResult = batchTokenize(TokenType.POINTER);
+        var collectionName = setup.getCollection().getName();
+        var tokenIds = tokenizeResult.getTokenIds();
+
+        // Rotate one token per batch and fail the third batch, which stops the rotation.
+        var mappingFile = directory.resolve("rotated-tokens.csv");
+        var failingClient = new TokensClient(apiClient) {
+            private int calls;
+
+            @Override
+            public Map<String, String> rotateTokens(String collectionName, List<String> tokenIds) throws ApiException {
+                if (++calls == 3) {
+                    throw new ApiException(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), "stopped");
+                }
+                return super.rotateTokens(collectionName, tokenIds);
+            }
+        };
+        try (var engine = new TokenRotationEngine(failingClient, 1, 1)) {
+            Assertions.assertThrows(ApiException.class, () -> engine.rotate(collectionName, tokenIds.stream(), mappingFile));
+        }
+        Files.writeString(mappingFile, tokenIds.get(2) + ",not-a-token\n" + tornCommit, StandardOpenOption.APPEND);
+
+        // Resume: the two committed batches are skipped and the third is rotated.
+        try (var engine = new TokenRotationEngine(tokensClient, 1, 1)) {
+            var result = engine.rotate(collectionName, tokenIds.stream(), mappingFile);
+            Assertions.assertEquals(2, result.resumedBatches());
+            Assertions.assertEquals(tokenIds.size() - 2, result.rotatedTokens());
+        }
+
+        Map<String, String> rotatedTokens;
+        try (var mappings = TokenRotationEngine.mappings(mappingFile)) {
+            rotatedTokens = mappings.collect(Collectors.toMap(RotatedToken::oldTokenId, RotatedToken::newTokenId));
+        }
+        Assertions.assertEquals(new HashSet<>(tokenIds), rotatedTokens.keySet());
+        Assertions.assertFalse(Files.readString(mappingFile).contains("not-a-token"));
+        var rotatedTokenizeResult = new RotateResult(rotatedTokens).rotate(tokenizeResult);
+
+        assertDetokenizeResultIsCorrect(rotatedTokenizeResult, singleDetokenize(rotatedTokenizeResult));
+    }
+
+    @ParameterizedTest
+    @MethodSource("reversibleTokenTypes")
+    public void cachedDetokenizeIsInvalidatedByRotate(TokenType tokenType) throws ApiException {
+
+        try (var cache = new DetokenizeCache(100, Duration.ofMinutes(1))) {
+            var cachingTokensClient = new TokensClient(apiClient, cache);
+            var collectionName = setup.getCollection().getName();
+
+            // Tokenize and detokenize twice. The second detokenize is served from the cache.
+            TokenizeResult tokenizeResult = batchTokenize(tokenType);
+            var tokenIds = tokenizeResult.getTokenIds();
+            cachingTokensClient.detokenize(collectionName, TokenDefinition.fromTokenIds(tokenIds), true, false);
+            Assertions.assertEquals(tokenIds.size(), cache.size());
+            var cached = cachingTokensClient.detokenize(
+                    collectionName, TokenDefinition.fromTokenIds(tokenIds), true, false);
+            assertDetokenizeResultIsCorrect(tokenizeResult, new DetokenizeResult(cached));
+
+            // Rotating through the same client invalidates the cached tokens,
+            // so the original token ids can no longer be used to detokenize.
+            cachingTokensClient.rotateTokens(collectionName, tokenIds);
+            Assertions.assertEquals(0, cache.size());
+            var results = cachingTokensClient.detokenize(
+                    collectionName, TokenDefinition.fromTokenIds(tokenIds), true, false);
+            Assertions.assertEquals(0, results.size());
+        }
+    }
+
     @ParameterizedTest
     @EnumSource(TokenType.class)
     public void successfullyUpdateTokens(TokenType tokenType) throws ApiException {
@@ -151,7 +517,7 @@ public class TestTokens {
         TokenizeResult tokenizeResult = batchTokenize(tokenType);
 
         // Update the tags on all tokens.
-        List<String> newTags = List.of("New tag");
+        List<String> newTags = List.of("new_tag_" + UUID.randomUUID());
 
         UpdateTokenRequest updateTokenRequest = new UpdateTokenRequest();
         updateTokenRequest.setTags(newTags);
@@ -175,6 +541,142 @@ public class TestTokens {
         assertSearchResultsMatchTokenizeResult(tokenizeResult, searchResult);
     }
 
+    @ParameterizedTest
+    @EnumSource(TokenType.class)
+    public void searchTokensInShards(TokenType tokenType) throws ApiException {
+
+        // Tokenize
+        TokenizeResult tokenizeResult = batchTokenize(tokenType);
+
+        // Search by all object ids, twice each, one object id per shard, so every token is found by two shards.
+        var objectIds = new ArrayList<>(tokenizeResult.getObjectIds());
+        objectIds.addAll(tokenizeResult.getObjectIds());
+        var queryToken = new QueryToken();
+        queryToken.setObjectIds(objectIds);
+        queryToken.setTags(tags);
+
+        List<TokenMetadata> tokenMetadata;
+        try (var search = new TokenSearch(tokensClient, setup.getCollection().getName(), queryToken, 1, 3)) {
+            tokenMetadata = search.stream().collect(toList());
+        }
+
+        // and verify that each token is returned once and is associated with the correct object id.
+        Assertions.assertEquals(tokenizeResult.getTokenIds().size(), tokenMetadata.size());
+        assertSearchResultsMatchTokenizeResult(tokenizeResult, new SearchResult(tokenMetadata));
+    }
+
+    @Test
+    public void failedShardFailsTheSearch() {
+        var failingClient = new TokensClient(apiClient) {
+            @Override
+            public List<TokenMetadata> searchTokens(String collectionName, QueryToken queryToken) throws ApiException {
+                throw new ApiException(Response.Status.BAD_REQUEST.getStatusCode(), "rejected");
+            }
+        };
+        var queryToken = new QueryToken();
+        queryToken.setObjectIds(setup.getObjectIds());
+
+        try (var search = new TokenSearch(failingClient, setup.getCollection().getName(), queryToken, 1, 3)) {
+            var failure = Assertions.assertThrows(UncheckedApiException.class, search::hasNext);
+            Assertions.assertEquals(400, failure.getCause().getCode());
+        }
+    }
+
+    @Test
+    public void deduplicateDeterministicTokenize() throws ApiException {
+        var registry = new HdrMetricsRegistry();
+        var dedupClient = new DeduplicatingTokensClient(
+                apiClient, null, new VaultMetrics(registry), 100, Duration.ofMinutes(1));
+        var collectionName = setup.getCollection().getName();
+
+        // Tokenize every object twice in one call. Each object is sent once and
+        // both positions get its token.
+        var objectIds = setup.getObjectIds();
+        var tokenizeRequests = new ArrayList<TokenizeRequest>();
+        for (var id : objectIds) {
+            tokenizeRequests.add(createTokenizeRequest(TokenType.DETERMINISTIC, id, props, tags));
+            tokenizeRequests.add(createTokenizeRequest(TokenType.DETERMINISTIC, id, props, tags));
+        }
+        var tokenValues = dedupClient.tokenize(collectionName, tokenizeRequests);
+        Assertions.assertEquals(tokenizeRequests.size(), tokenValues.size());
+        for (int i = 0; i < tokenValues.size(); i += 2) {
+            Assertions.assertEquals(tokenValues.get(i).getTokenId(), tokenValues.get(i + 1).getTokenId());
+        }
+        var tokenize = registry.snapshot().get("tokens.tokenize");
+        Assertions.assertEquals(objectIds.size(), tokenize.meanBatchSize());
+        // Requests by object id are not cached.
+        Assertions.assertEquals(0, dedupClient.cacheSize());
+
+        // Tokenize a value twice in one call and again in a second call, which is served from the cache.
+        var byFields = new TokenizeRequest();
+        byFields.setType(TokenType.DETERMINISTIC);
+        byFields.setProps(List.of("email"));
+        var object = new InputObject();
+        object.setFields(Map.of("email", "jo@somemail.com"));
+        byFields.setObject(object);
+        var first = dedupClient.tokenize(collectionName, List.of(byFields, byFields));
+        Assertions.assertEquals(first.get(0).getTokenId(), first.get(1).getTokenId());
+        Assertions.assertEquals(1, dedupClient.cacheSize());
+        Assertions.assertEquals(2, registry.snapshot().get("tokens.tokenize").count());
+        var second = dedupClient.tokenize(collectionName, List.of(byFields));
+        Assertions.assertEquals(first.get(0).getTokenId(), second.get(0).getTokenId());
+        Assertions.assertEquals(2, registry.snapshot().get("tokens.tokenize").count());
+
+        // Archiving tokens of the collection clears its cached tokens.
+        dedupClient.archiveTokens(collectionName, TokenDefinition.fromTokenIds(List.of(first.get(0).getTokenId())));
+        Assertions.assertEquals(0, dedupClient.cacheSize());
+    }
+
+    // Publish the items to the processor and collect its results, requesting one result at a time.
+    private static <I, O> void publishAndCollect(
+            List<I> items, Flow.Processor<I, O> processor, List<O> results) throws Exception {
+        var completed = collect(processor, results, 1);
+        try (var publisher = new SubmissionPublisher<I>()) {
+            publisher.subscribe(processor);
+            items.forEach(publisher::submit);
+        }
+        completed.get(30, TimeUnit.SECONDS);
+    }
+
+    // Subscribe to the processor and add its results to results, requesting demand results
+    // at a time. The future completes when the processor does.
+    private static <O> CompletableFuture<Void> collect(Flow.Publisher<O> processor, List<O> results, long demand) {
+        var completed = new CompletableFuture<Void>();
+        processor.subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+            private long pending;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                pending = demand;
+                subscription.request(demand);
+            }
+
+            @Override
+            public void onNext(O result) {
+                synchronized (results) {
+                    results.add(result);
+                }
+                if (--pending == 0) {
+                    pending = demand;
+                    subscription.request(demand);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                completed.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                completed.complete(null);
+            }
+        });
+        return completed;
+    }
+
     // Batch tokenize the 'props' of the 'objectIds' adding the 'tags' to each token.
     private TokenizeResult batchTokenize(TokenType tokenType) throws ApiException {
         List<TokenizeRequest> tokenizeRequests = setup.getObjectIds().stream()
@@ -187,6 +689,23 @@ public class TestTokens {
         );
     }
 
+    // count tokenize requests for the objects of the collection, in turn.
+    private List<TokenizeRequest> streamingTokenizeRequests(int count) {
+        var objectIds = setup.getObjectIds();
+        var requests = new ArrayList<TokenizeRequest>(count);
+        for (int i = 0; i < count; i++) {
+            requests.add(createTokenizeRequest(
+                    TokenType.POINTER, objectIds.get(i % objectIds.size()), List.of("email"), tags));
+        }
+        return requests;
+    }
+
+    private static int size(List<?> results) {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
     private TokenizeRequest createTokenizeRequest(
             TokenType typeEnum, UUID id, List<String> props, List<String> tags) {
 
@@ -221,6 +740,23 @@ public class TestTokens {
         return new DetokenizeResult(detokenizedTokens);
     }
 
+    // coalescedDetokenize calls detokenize for all tokens in tokenResult one by one, but
+    // concurrently through a coalescer that merges the calls into batches.
+    private DetokenizeResult coalescedDetokenize(TokenizeResult tokenizeResult) {
+        try (var coalescer = new DetokenizeCoalescer(tokensClient)) {
+            var futures = tokenizeResult.getTokenValues().stream()
+                    .map(tokenValue -> coalescer.detokenize(
+                            setup.getCollection().getName(), tokenValue.getTokenId(), true, false))
+                    .collect(toList());
+
+            var detokenizedTokens = futures.stream()
+                    .map(CompletableFuture::join)
+                    .filter(Objects::nonNull)
+                    .collect(toList());
+            return new DetokenizeResult(detokenizedTokens);
+        }
+    }
+
     private DetokenizeResult batchDetokenize() throws ApiException {
         // Batch detokenize by 'tags' (all tokens have the same tags, so this should detokenize all)
         var detokenizedTokens = tokensClient.detokenize(
@@ -0,0 +1,338 @@
+package tokens;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+// TokenIndex is a compact bidirectional index of object ids and token ids.
+// - Each entry is an object id, stored as two longs, and the ordinal of its token id.
+// - Each distinct token id is stored once, as UTF-8 bytes in a byte arena.
+// - Object ids and token ids are looked up in open addressing hash tables of ints.
+// - The entries of a token id are linked in insertion order by an int array.
+// Everything is kept in primitive arrays, so an entry costs a few dozen bytes instead of the
+// boxed UUIDs, lists and tree nodes of a map. The sorted views are built on first use.
+// As with a map, when an object id is added again its latest token id is returned.
+final class TokenIndex {
+
+    private static final int NONE = -1;
+    // Token ids are usually UUIDs.
+    private static final int TYPICAL_TOKEN_ID_BYTES = 36;
+
+    // Entries.
+    private int size;
+    private long[] objectIdMostSigBits;
+    private long[] objectIdLeastSigBits;
+    private int[] tokenOfEntry;
+    private int[] nextEntryOfToken;
+
+    // Token ids. The bytes of token i are arena[tokenOffsets[i] .. tokenOffsets[i + 1]).
+    private int tokenCount;
+    private byte[] arena;
+    private int arenaSize;
+    private int[] tokenOffsets;
+    private int[] firstEntryOfToken;
+    private int[] lastEntryOfToken;
+
+    // Hash tables of entry index + 1 and token ordinal + 1, 0 is an empty slot.
+    private int[] objectSlots;
+    private int objectCount;
+    private int[] tokenSlots;
+
+    private List<UUID> sortedObjectIds;
+    private List<String> sortedTokenIds;
+
+    TokenIndex(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        objectIdMostSigBits = new long[capacity];
+        objectIdLeastSigBits = new long[capacity];
+        tokenOfEntry = new int[capacity];
+        nextEntryOfToken = new int[capacity];
+        arena = new byte[capacity * TYPICAL_TOKEN_ID_BYTES];
+        tokenOffsets = new int[capacity + 1];
+        firstEntryOfToken = new int[capacity];
+        lastEntryOfToken = new int[capacity];
+        objectSlots = new int[tableCapacity(capacity)];
+        tokenSlots = new int[tableCapacity(capacity)];
+    }
+
+    void add(UUID objectId, String tokenId) {
+        if (size == objectIdMostSigBits.length) {
+            growEntries();
+        }
+        int token = findToken(tokenId);
+        if (token == NONE) {
+            token = addToken(tokenId);
+        }
+
+        int entry = size++;
+        objectIdMostSigBits[entry] = objectId.getMostSignificantBits();
+        objectIdLeastSigBits[entry] = objectId.getLeastSignificantBits();
+        tokenOfEntry[entry] = token;
+        nextEntryOfToken[entry] = NONE;
+        if (firstEntryOfToken[token] == NONE) {
+            firstEntryOfToken[token] = entry;
+        } else {
+            nextEntryOfToken[lastEntryOfToken[token]] = entry;
+        }
+        lastEntryOfToken[token] = entry;
+
+        putObject(entry);
+        sortedObjectIds = null;
+        sortedTokenIds = null;
+    }
+
+    // Add a token id that does not reference any object (yet).
+    // Returns false if the token id is already in the index, so the index can be used as a set.
+    boolean addTokenId(String tokenId) {
+        if (findToken(tokenId) != NONE) {
+            return false;
+        }
+        addToken(tokenId);
+        sortedTokenIds = null;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // The token id of the object id, or null if it is not in the index.
+    String tokenId(UUID objectId) {
+        int entry = findObject(objectId.getMostSignificantBits(), objectId.getLeastSignificantBits());
+        return entry == NONE ? null : tokenIdOf(tokenOfEntry[entry]);
+    }
+
+    // The object ids of the token id in insertion order, or null if it is not in the index.
+    List<UUID> objectIds(String tokenId) {
+        int token = findToken(tokenId);
+        if (token == NONE) {
+            return null;
+        }
+        var objectIds = new ArrayList<UUID>();
+        for (int entry = firstEntryOfToken[token]; entry != NONE; entry = nextEntryOfToken[entry]) {
+            objectIds.add(new UUID(objectIdMostSigBits[entry], objectIdLeastSigBits[entry]));
+        }
+        return objectIds;
+    }
+
+    // The distinct object ids, sorted.
+    List<UUID> sortedObjectIds() {
+        if (sortedObjectIds == null) {
+            var objectIds = new ArrayList<UUID>(objectCount);
+            for (int slot : objectSlots) {
+                if (slot != 0) {
+                    objectIds.add(new UUID(objectIdMostSigBits[slot - 1], objectIdLeastSigBits[slot - 1]));
+                }
+            }
+            Collections.sort(objectIds);
+            sortedObjectIds = Collections.unmodifiableList(objectIds);
+        }
+        return sortedObjectIds;
+    }
+
+    // The distinct token ids, sorted.
+    List<String> sortedTokenIds() {
+        if (sortedTokenIds == null) {
+            var tokenIds = new ArrayList<String>(tokenCount);
+            for (int token = 0; token < tokenCount; token++) {
+                tokenIds.add(tokenIdOf(token));
+            }
+            Collections.sort(tokenIds);
+            sortedTokenIds = Collections.unmodifiableList(tokenIds);
+        }
+        return sortedTokenIds;
+    }
+
+    private String tokenIdOf(int token) {
+        int offset = tokenOffsets[token];
+        return new String(arena, offset, tokenOffsets[token + 1] - offset, StandardCharsets.UTF_8);
+    }
+
+    private void putObject(int entry) {
+        long mostSigBits = objectIdMostSigBits[entry];
+        long leastSigBits = objectIdLeastSigBits[entry];
+        int mask = objectSlots.length - 1;
+        for (int slot = hash(mostSigBits, leastSigBits) & mask; ; slot = (slot + 1) & mask) {
+            int current = objectSlots[slot];
+            if (current == 0) {
+                objectSlots[slot] = entry + 1;
+                if (++objectCount * 2 > objectSlots.length) {
+                    objectSlots = rehashObjects(objectSlots.length * 2);
+                }
+                return;
+            }
+            if (objectIdMostSigBits[current - 1] == mostSigBits && objectIdLeastSigBits[current - 1] == leastSigBits) {
+                objectSlots[slot] = entry + 1;
+                return;
+            }
+        }
+    }
+
+    private int findObject(long mostSigBits, long leastSigBits) {
+        int mask = objectSlots.length - 1;
+        for (int slot = hash(mostSigBits, leastSigBits) & mask; ; slot = (slot + 1) & mask) {
+            int current = objectSlots[slot];
+            if (current == 0) {
+                return NONE;
+            }
+            if (objectIdMostSigBits[current - 1] == mostSigBits && objectIdLeastSigBits[current - 1] == leastSigBits) {
+                return current - 1;
+            }
+        }
+    }
+
+    private int[] rehashObjects(int capacity) {
+        var slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int current : objectSlots) {
+            if (current != 0) {
+                int slot = hash(objectIdMostSigBits[current - 1], objectIdLeastSigBits[current - 1]) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = current;
+            }
+        }
+        return slots;
+    }
+
+    private int addToken(String tokenId) {
+        var bytes = tokenId.getBytes(StandardCharsets.UTF_8);
+        if (tokenCount + 1 == tokenOffsets.length || tokenCount == firstEntryOfToken.length) {
+            int capacity = firstEntryOfToken.length * 2;
+            tokenOffsets = Arrays.copyOf(tokenOffsets, capacity + 1);
+            firstEntryOfToken = Arrays.copyOf(firstEntryOfToken, capacity);
+            lastEntryOfToken = Arrays.copyOf(lastEntryOfToken, capacity);
+        }
+        if (arenaSize + bytes.length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length + arena.length / 2, arenaSize + bytes.length));
+        }
+        System.arraycopy(bytes, 0, arena, arenaSize, bytes.length);
+        arenaSize += bytes.length;
+
+        int token = tokenCount++;
+        tokenOffsets[tokenCount] = arenaSize;
+        firstEntryOfToken[token] = NONE;
+        lastEntryOfToken[token] = NONE;
+
+        int mask = tokenSlots.length - 1;
+        int slot = hashToken(token) & mask;
+        while (tokenSlots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        tokenSlots[slot] = token + 1;
+        if (tokenCount * 2 > tokenSlots.length) {
+            rehashTokens(tokenSlots.length * 2);
+        }
+        return token;
+    }
+
+    private int findToken(String tokenId) {
+        int hash = hash(tokenId);
+        if (hash == NONE) {
+            // Not ASCII, compare the UTF-8 bytes.
+            return findToken(tokenId.getBytes(StandardCharsets.UTF_8));
+        }
+        int mask = tokenSlots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int current = tokenSlots[slot];
+            if (current == 0) {
+                return NONE;
+            }
+            if (asciiEquals(current - 1, tokenId)) {
+                return current - 1;
+            }
+        }
+    }
+
+    private int findToken(byte[] tokenId) {
+        int mask = tokenSlots.length - 1;
+        for (int slot = hash(tokenId, 0, tokenId.length) & mask; ; slot = (slot + 1) & mask) {
+            int current = tokenSlots[slot];
+            if (current == 0) {
+                return NONE;
+            }
+            int offset = tokenOffsets[current - 1];
+            if (Arrays.equals(arena, offset, tokenOffsets[current], tokenId, 0, tokenId.length)) {
+                return current - 1;
+            }
+        }
+    }
+
+    private boolean asciiEquals(int token, String tokenId) {
+        int offset = tokenOffsets[token];
+        if (tokenOffsets[token + 1] - offset != tokenId.length()) {
+            return false;
+        }
+        for (int i = 0; i < tokenId.length(); i++) {
+            if (arena[offset + i] != tokenId.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehashTokens(int capacity) {
+        tokenSlots = new int[capacity];
+        int mask = capacity - 1;
+        for (int token = 0; token < tokenCount; token++) {
+            int slot = hashToken(token) & mask;
+            while (tokenSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            tokenSlots[slot] = token + 1;
+        }
+    }
+
+    private void growEntries() {
+        int capacity = objectIdMostSigBits.length * 2;
+        objectIdMostSigBits = Arrays.copyOf(objectIdMostSigBits, capacity);
+        objectIdLeastSigBits = Arrays.copyOf(objectIdLeastSigBits, capacity);
+        tokenOfEntry = Arrays.copyOf(tokenOfEntry, capacity);
+        nextEntryOfToken = Arrays.copyOf(nextEntryOfToken, capacity);
+    }
+
+    private int hashToken(int token) {
+        int offset = tokenOffsets[token];
+        return hash(arena, offset, tokenOffsets[token + 1]);
+    }
+
+    // FNV-1a over the bytes, so that a token id hashes the same as a String and in the arena.
+    private static int hash(byte[] bytes, int from, int to) {
+        int hash = 0x811c9dc5;
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ (bytes[i] & 0xff)) * 0x01000193;
+        }
+        return spread(hash);
+    }
+
+    // The hash of an ASCII token id, or NONE if it is not ASCII.
+    private static int hash(String tokenId) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < tokenId.length(); i++) {
+            char c = tokenId.charAt(i);
+            if (c >= 0x80) {
+                return NONE;
+            }
+            hash = (hash ^ c) * 0x01000193;
+        }
+        return spread(hash);
+    }
+
+    private static int hash(long mostSigBits, long leastSigBits) {
+        long hash = (mostSigBits ^ leastSigBits) * 0x9E3779B97F4A7C15L;
+        return spread((int) (hash ^ (hash >>> 32)));
+    }
+
+    // Non-negative, and never NONE.
+    private static int spread(int hash) {
+        return (hash ^ (hash >>> 16)) & 0x7fffffff;
+    }
+
+    private static int tableCapacity(int expectedSize) {
+        return Integer.highestOneBit(Math.max(8, expectedSize) * 4 - 1);
+    }
+}
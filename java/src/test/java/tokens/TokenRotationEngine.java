@@ -0,0 +1,142 @@
+package tokens;
+
+import com.piiano.vault.client.openapi.ApiException;
+import common.DaemonThreads;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+// TokenRotationEngine rotates an arbitrarily large stream of token ids.
+// The token ids are rotated in batches of batchSize, at most maxInFlight batches at a time.
+// Reading the stream blocks while maxInFlight batches are in flight, and the mapping of each
+// rotated batch is appended to a mapping file as soon as it is rotated (see RotationLog), so
+// the memory used does not grow with the number of tokens.
+// A rotation that failed or was interrupted resumes from its checkpoint when rotate is called
+// again with the same mapping file. The token ids must then be read again from the same
+// source in the same order, since the checkpoint records the batches by position; e.g. export
+// the token ids to a file first rather than searching while rotating. Batches whose rotate
+// call failed are rotated again. A batch that the vault rotated but whose mapping was not
+// committed when the process stopped cannot be recovered.
+// Use mappings() to remap the stored token ids incrementally, instead of holding a RotateResult.
+public class TokenRotationEngine implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    private final TokensClient tokensClient;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final ExecutorService executor;
+
+    public TokenRotationEngine(TokensClient tokensClient) {
+        this(tokensClient, DEFAULT_BATCH_SIZE, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public TokenRotationEngine(TokensClient tokensClient, int batchSize, int maxInFlight) {
+        if (batchSize < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("batch size and in flight limit must be positive");
+        }
+        this.tokensClient = tokensClient;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.executor = Executors.newFixedThreadPool(maxInFlight, DaemonThreads.named("token-rotation-engine"));
+    }
+
+    // The committed old to new token id mappings of a mapping file, in the order they were rotated.
+    // The stream must be closed.
+    public static Stream<RotatedToken> mappings(Path mappingFile) throws IOException {
+        return RotationLog.read(mappingFile);
+    }
+
+    // Rotate the token ids and append their mapping to mappingFile. The checkpoint is kept
+    // next to it, in mappingFile.checkpoint, until the rotation completes.
+    // A mapping file without a checkpoint belongs to a completed rotation and is not overwritten.
+    // If a batch fails the batches in flight are completed and the first failure is thrown.
+    public RotationResult rotate(String collectionName, Stream<String> tokenIds, Path mappingFile)
+            throws ApiException, IOException {
+        try (var log = RotationLog.open(mappingFile, batchSize)) {
+            var result = rotate(collectionName, tokenIds.iterator(), log, mappingFile);
+            log.complete();
+            return result;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private RotationResult rotate(String collectionName, Iterator<String> tokenIds, RotationLog log, Path mappingFile)
+            throws ApiException, IOException {
+        var inFlight = new Semaphore(maxInFlight);
+        var failure = new AtomicReference<Throwable>();
+        var rotatedTokens = new AtomicLong();
+        long resumedBatches = log.doneBatchCount();
+        long batch = 0;
+
+        try {
+            while (tokenIds.hasNext() && failure.get() == null) {
+                // A resumed rotation uses the batch size of its checkpoint.
+                var batchTokenIds = new ArrayList<String>(log.batchSize());
+                while (batchTokenIds.size() < log.batchSize() && tokenIds.hasNext()) {
+                    batchTokenIds.add(tokenIds.next());
+                }
+                if (!log.isDone(batch)) {
+                    inFlight.acquire();
+                    // A batch in flight may have failed while this one was waiting.
+                    if (failure.get() != null) {
+                        inFlight.release();
+                        break;
+                    }
+                    submit(collectionName, batch, batchTokenIds, log, inFlight, failure, rotatedTokens);
+                }
+                batch++;
+            }
+            // Wait for the batches in flight.
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        }
+
+        var error = failure.get();
+        if (error instanceof ApiException) {
+            throw (ApiException) error;
+        }
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error != null) {
+            throw new RuntimeException(error);
+        }
+        return new RotationResult(rotatedTokens.get(), batch, resumedBatches, mappingFile);
+    }
+
+    private void submit(String collectionName, long batch, List<String> tokenIds, RotationLog log,
+                        Semaphore inFlight, AtomicReference<Throwable> failure, AtomicLong rotatedTokens) {
+        try {
+            executor.execute(() -> {
+                try {
+                    var rotated = tokensClient.rotateTokens(collectionName, tokenIds);
+                    log.commit(batch, rotated);
+                    rotatedTokens.addAndGet(rotated.size());
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+}
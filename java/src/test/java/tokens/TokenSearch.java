@@ -0,0 +1,160 @@
+package tokens;
+
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.QueryToken;
+import com.piiano.vault.client.openapi.model.TokenMetadata;
+import common.DaemonThreads;
+import common.UncheckedApiException;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// TokenSearch iterates over the tokens that match a query, searching for them in shards.
+// A token matches a query if it matches one of its token ids, one of its object ids and one of
+// its tags (a list that is not set matches any token). The largest of these lists is split
+// into shards of at most shardSize values, each searched with the other lists unchanged, so
+// the union of the shards is the result of the query.
+// Up to maxInFlight shards are searched concurrently and their tokens are returned as the
+// shards complete, so results are not in any particular order. A token that matches several
+// shards is returned once; the token ids seen are kept in a TokenIndex.
+// The search API is not paginated, so a shard (for example a single tag) is fetched whole.
+// A search can be iterated once, and it closes itself when the last shard was returned.
+// Closing it earlier (or the stream returned by stream()) cancels the shards in flight.
+// A failed search throws an UncheckedApiException, or the RuntimeException of the client.
+public class TokenSearch implements Iterator<TokenMetadata>, AutoCloseable {
+
+    public static final int DEFAULT_SHARD_SIZE = 100;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    private final TokensClient tokensClient;
+    private final String collectionName;
+    private final Iterator<QueryToken> shards;
+    private final ExecutorService executor;
+    private final CompletionService<List<TokenMetadata>> completed;
+    private final TokenIndex seenTokenIds = new TokenIndex(DEFAULT_SHARD_SIZE);
+    private final List<Future<List<TokenMetadata>>> inFlight = new ArrayList<>();
+
+    private Iterator<TokenMetadata> current = Collections.emptyIterator();
+    private TokenMetadata next;
+
+    public TokenSearch(TokensClient tokensClient, String collectionName, QueryToken query) {
+        this(tokensClient, collectionName, query, DEFAULT_SHARD_SIZE, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public TokenSearch(TokensClient tokensClient, String collectionName, QueryToken query,
+                       int shardSize, int maxInFlight) {
+        if (shardSize < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("shard size and in flight limit must be positive");
+        }
+        this.tokensClient = tokensClient;
+        this.collectionName = collectionName;
+        this.shards = shard(query, shardSize).iterator();
+        this.executor = Executors.newFixedThreadPool(maxInFlight, DaemonThreads.named("token-search"));
+        this.completed = new ExecutorCompletionService<>(executor);
+        for (int i = 0; i < maxInFlight && shards.hasNext(); i++) {
+            submitNextShard();
+        }
+    }
+
+    public Stream<TokenMetadata> stream() {
+        var spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.DISTINCT | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            while (!current.hasNext()) {
+                if (inFlight.isEmpty()) {
+                    close();
+                    return false;
+                }
+                current = awaitShard().iterator();
+            }
+            var token = current.next();
+            if (seenTokenIds.addTokenId(token.getTokenId())) {
+                next = token;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public TokenMetadata next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        var token = next;
+        next = null;
+        return token;
+    }
+
+    @Override
+    public void close() {
+        inFlight.forEach(future -> future.cancel(true));
+        inFlight.clear();
+        current = Collections.emptyIterator();
+        next = null;
+        executor.shutdownNow();
+    }
+
+    // Split the largest list of the query into shards.
+    static List<QueryToken> shard(QueryToken query, int shardSize) {
+        int tokenIds = size(query.getTokenIds());
+        int objectIds = size(query.getObjectIds());
+        int tags = size(query.getTags());
+        int largest = Math.max(tokenIds, Math.max(objectIds, tags));
+        if (largest <= shardSize) {
+            return List.of(query);
+        }
+
+        var shards = new ArrayList<QueryToken>((largest + shardSize - 1) / shardSize);
+        for (int from = 0; from < largest; from += shardSize) {
+            int to = Math.min(largest, from + shardSize);
+            var shard = new QueryToken();
+            shard.setTokenIds(largest == tokenIds ? query.getTokenIds().subList(from, to) : query.getTokenIds());
+            shard.setObjectIds(largest == objectIds && largest != tokenIds
+                    ? query.getObjectIds().subList(from, to) : query.getObjectIds());
+            shard.setTags(largest == tags && largest != tokenIds && largest != objectIds
+                    ? query.getTags().subList(from, to) : query.getTags());
+            shards.add(shard);
+        }
+        return shards;
+    }
+
+    private List<TokenMetadata> awaitShard() {
+        try {
+            var shard = completed.take();
+            inFlight.remove(shard);
+            var tokens = shard.get();
+            if (shards.hasNext()) {
+                submitNextShard();
+            }
+            return tokens == null ? List.of() : tokens;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new UncheckedApiException(new ApiException(e));
+        } catch (ExecutionException e) {
+            close();
+            if (e.getCause() instanceof ApiException) {
+                throw new UncheckedApiException((ApiException) e.getCause());
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void submitNextShard() {
+        var shard = shards.next();
+        inFlight.add(completed.submit(() -> tokensClient.searchTokens(collectionName, shard)));
+    }
+
+    private static int size(List<?> values) {
+        return values == null ? 0 : values.size();
+    }
+}
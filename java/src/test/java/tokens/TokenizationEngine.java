@@ -0,0 +1,127 @@
+package tokens;
+
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.TokenValue;
+import com.piiano.vault.client.openapi.model.TokenizeRequest;
+import common.DaemonThreads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+// TokenizationEngine tokenizes arbitrarily large streams of requests.
+// The requests are split into chunks of at most chunkSize requests and the chunks
+// are sent to tokenize concurrently, at most maxInFlight at a time. Reading the
+// stream blocks while maxInFlight chunks are in flight (backpressure), so the
+// memory used by pending requests is bounded.
+// The token values of the chunks are reassembled in the order of the requests,
+// which keeps the guarantee that TokenizeResult relies on: the i-th token value
+// belongs to the i-th object id.
+public class TokenizationEngine implements AutoCloseable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 250;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    private final TokensClient tokensClient;
+    private final int chunkSize;
+    private final Semaphore inFlight;
+    private final ExecutorService executor;
+
+    public TokenizationEngine(TokensClient tokensClient) {
+        this(tokensClient, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public TokenizationEngine(TokensClient tokensClient, int chunkSize, int maxInFlight) {
+        if (chunkSize < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("chunk size and in flight limit must be positive");
+        }
+        this.tokensClient = tokensClient;
+        this.chunkSize = chunkSize;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.executor = Executors.newFixedThreadPool(maxInFlight, DaemonThreads.named("tokenization-engine"));
+    }
+
+    // Tokenize all the requests. Each request must reference its object by id, a request by
+    // fields is rejected with an IllegalArgumentException.
+    // Once a chunk fails no more chunks are sent, and the first failure (in request order)
+    // is thrown.
+    public TokenizeResult tokenize(String collectionName, Stream<TokenizeRequest> requests) throws ApiException {
+        var objectIds = new ArrayList<UUID>();
+        var pending = new ArrayList<Future<List<TokenValue>>>();
+        var chunk = new ArrayList<TokenizeRequest>(chunkSize);
+        var failed = new AtomicBoolean();
+
+        try {
+            var iterator = requests.iterator();
+            while (iterator.hasNext() && !failed.get()) {
+                var request = iterator.next();
+                if (request.getObject() == null || request.getObject().getId() == null) {
+                    throw new IllegalArgumentException(
+                            "tokenize request " + objectIds.size() + " does not reference its object by id");
+                }
+                objectIds.add(request.getObject().getId());
+                chunk.add(request);
+                if (chunk.size() == chunkSize) {
+                    submit(collectionName, chunk, failed, pending);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty() && !failed.get()) {
+                submit(collectionName, chunk, failed, pending);
+            }
+
+            var tokenValues = new ArrayList<TokenValue>(objectIds.size());
+            for (var future : pending) {
+                tokenValues.addAll(future.get());
+            }
+            return new TokenizeResult(objectIds, tokenValues);
+        } catch (InterruptedException e) {
+            pending.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        } catch (ExecutionException e) {
+            pending.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof ApiException) {
+                throw (ApiException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (RuntimeException e) {
+            pending.forEach(future -> future.cancel(true));
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    // Send the chunk when a slot is free, unless a chunk failed while waiting for it.
+    private void submit(String collectionName, List<TokenizeRequest> chunk, AtomicBoolean failed,
+                        List<Future<List<TokenValue>>> pending) throws InterruptedException {
+        inFlight.acquire();
+        if (failed.get()) {
+            inFlight.release();
+            return;
+        }
+        try {
+            pending.add(executor.submit(() -> {
+                try {
+                    return tokensClient.tokenize(collectionName, chunk);
+                } catch (ApiException | RuntimeException e) {
+                    // Set before the slot is released, so the next chunk is not sent.
+                    failed.set(true);
+                    throw e;
+                } finally {
+                    inFlight.release();
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package tokens;
+
+import com.piiano.vault.client.openapi.ApiException;
+import com.piiano.vault.client.openapi.model.TokenizeRequest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+// TokenizeProcessor tokenizes a stream of tokenize requests with backpressure, in batches
+// sized by the demand of its subscriber (see BatchingProcessor).
+// Each request must reference its object by id. The token values are published in the order
+// of the requests, each paired with the id of its object.
+public class TokenizeProcessor extends BatchingProcessor<TokenizeRequest, TokenizedObject> {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 250;
+    public static final Duration DEFAULT_LINGER = Duration.ofMillis(20);
+
+    private final TokensClient tokensClient;
+    private final String collectionName;
+
+    public TokenizeProcessor(TokensClient tokensClient, String collectionName) {
+        this(tokensClient, collectionName, DEFAULT_MAX_BATCH_SIZE, DEFAULT_LINGER);
+    }
+
+    public TokenizeProcessor(TokensClient tokensClient, String collectionName, int maxBatchSize, Duration linger) {
+        super(maxBatchSize, linger, "tokenize-processor");
+        this.tokensClient = tokensClient;
+        this.collectionName = collectionName;
+    }
+
+    @Override
+    List<TokenizedObject> process(List<TokenizeRequest> batch) throws ApiException {
+        var tokenValues = tokensClient.tokenize(collectionName, batch);
+        var tokenizedObjects = new ArrayList<TokenizedObject>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            tokenizedObjects.add(new TokenizedObject(batch.get(i).getObject().getId(), tokenValues.get(i)));
+        }
+        return tokenizedObjects;
+    }
+}
@@ -8,26 +8,17 @@ import java.util.*;
 // - The token values.
 // - Maps of token  to object ids and vice versa based on the guarantee
 //   made by tokenize that the List<TokenValue> that it returns is ordered
-//   by the objectIds that it is passed.
+//   by the objectIds that it is passed. The maps are kept in a TokenIndex.
 class TokenizeResult {
     private final List<TokenValue> tokenValues;
-    private final Map<UUID, String> objectIdToTokenId = new TreeMap<>();
-    private final Map<String, List<UUID>> tokenIdToObjectIds = new TreeMap<>();
+    private final TokenIndex index;
 
     TokenizeResult(List<UUID> objectIds, List<TokenValue> tokenValues) {
         this.tokenValues = tokenValues;
+        this.index = new TokenIndex(objectIds.size());
 
         for (int i = 0; i < objectIds.size(); i++) {
-            UUID objectId = objectIds.get(i);
-            String tokenId = tokenValues.get(i).getTokenId();
-
-            objectIdToTokenId.put(objectId, tokenId);
-            var objectIdsOfTokenId = tokenIdToObjectIds.get(tokenId);
-            if (objectIdsOfTokenId == null) {
-                objectIdsOfTokenId = new ArrayList<UUID>();
-            }
-            objectIdsOfTokenId.add(objectId);
-            tokenIdToObjectIds.put(tokenId, objectIdsOfTokenId);
+            index.add(objectIds.get(i), tokenValues.get(i).getTokenId());
         }
     }
 
@@ -36,18 +27,18 @@ class TokenizeResult {
     }
 
     List<UUID> getObjectIds() {
-        return new ArrayList<>(objectIdToTokenId.keySet());
+        return new ArrayList<>(index.sortedObjectIds());
     }
 
     List<String> getTokenIds() {
-        return new ArrayList<>(tokenIdToObjectIds.keySet());
+        return new ArrayList<>(index.sortedTokenIds());
     }
 
     List<UUID> getObjectIds(String tokenId) {
-        return tokenIdToObjectIds.get(tokenId);
+        return index.objectIds(tokenId);
     }
 
     String getTokenId(UUID objectId) {
-        return objectIdToTokenId.get(objectId);
+        return index.tokenId(objectId);
     }
 }
@@ -0,0 +1,10 @@
+package tokens;
+
+import com.piiano.vault.client.openapi.model.TokenValue;
+
+import java.util.UUID;
+
+// TokenizedObject is a token value returned by tokenize, paired with the id of the object
+// that was tokenized.
+public record TokenizedObject(UUID objectId, TokenValue tokenValue) {
+}
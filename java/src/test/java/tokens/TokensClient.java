@@ -4,11 +4,15 @@ import com.piiano.vault.client.openapi.ApiClient;
 import com.piiano.vault.client.openapi.ApiException;
 import com.piiano.vault.client.openapi.TokensApi;
 import com.piiano.vault.client.openapi.model.*;
+import common.AsyncCalls;
+import metrics.VaultMetrics;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static common.Client.*;
 import static java.util.Collections.emptyList;
@@ -16,17 +20,63 @@ import static java.util.Collections.emptyList;
 public class TokensClient {
 
     private final TokensApi collections;
+    private final DetokenizeCache detokenizeCache;
+    private final VaultMetrics metrics;
 
     public TokensClient(ApiClient client) {
-        collections = new TokensApi(client);
+        this(client, null, VaultMetrics.disabled());
+    }
+
+    public TokensClient(ApiClient client, DetokenizeCache detokenizeCache) {
+        this(client, detokenizeCache, VaultMetrics.disabled());
+    }
+
+    // When detokenizeCache is not null, detokenize calls by token ids are served from it,
+    // and it is invalidated by the calls of this client that change tokens.
+    // Only the calls that reach the vault are measured.
+    public TokensClient(ApiClient client, DetokenizeCache detokenizeCache, VaultMetrics metrics) {
+        collections = new TokensApi(metrics.instrument(client));
+        this.detokenizeCache = detokenizeCache;
+        this.metrics = metrics;
     }
 
     public List<TokenValue> tokenize(String collectionName, List<TokenizeRequest> tokenizeRequest) throws ApiException {
-        return collections.tokenize(collectionName, APP_FUNCTIONALITY_REASON, tokenizeRequest,
-                USE_DEFAULT_TTL, emptyList(), NO_TRANSACTION_ID, NO_ADHOC_REASON, RELOAD_CACHE);
+        return metrics.call("tokens.tokenize", tokenizeRequest.size(), () -> collections.tokenize(collectionName,
+                APP_FUNCTIONALITY_REASON, tokenizeRequest, USE_DEFAULT_TTL, emptyList(), NO_TRANSACTION_ID, NO_ADHOC_REASON,
+                RELOAD_CACHE));
     }
 
+    // When the cache is used the cached tokens are returned before the fetched ones.
     public List<DetokenizedToken> detokenize(String collectionName, TokenDefinition tokens, boolean includeMetadata, boolean archived) throws ApiException {
+        if (detokenizeCache == null || !isByTokenIdsOnly(tokens)) {
+            return detokenizeFromVault(collectionName, tokens, includeMetadata, archived);
+        }
+
+        var detokenizedTokens = new ArrayList<DetokenizedToken>(tokens.tokenIds().size());
+        var missingTokenIds = new ArrayList<String>();
+        for (var tokenId : tokens.tokenIds()) {
+            var cached = detokenizeCache.get(collectionName, tokenId, includeMetadata, archived);
+            if (cached != null) {
+                detokenizedTokens.add(cached);
+            } else {
+                missingTokenIds.add(tokenId);
+            }
+        }
+        if (missingTokenIds.isEmpty()) {
+            return detokenizedTokens;
+        }
+
+        var epoch = detokenizeCache.epoch();
+        var fetched = detokenizeFromVault(
+                collectionName, TokenDefinition.fromTokenIds(missingTokenIds), includeMetadata, archived);
+        for (var detokenizedToken : fetched) {
+            detokenizeCache.put(epoch, collectionName, includeMetadata, archived, detokenizedToken);
+        }
+        detokenizedTokens.addAll(fetched);
+        return detokenizedTokens;
+    }
+
+    private List<DetokenizedToken> detokenizeFromVault(String collectionName, TokenDefinition tokens, boolean includeMetadata, boolean archived) throws ApiException {
         Set<String> options = new HashSet<>();
         if (includeMetadata) {
             options.add("include_metadata");
@@ -34,27 +84,90 @@ public class TokensClient {
         if (archived) {
             options.add("archived");
         }
-        return collections.detokenize(collectionName, APP_FUNCTIONALITY_REASON, tokens.objectIds(),
-                tokens.tags(), tokens.tokenIds(), emptyList(), options, emptyList(), NO_ADHOC_REASON, RELOAD_CACHE);
+        return metrics.call("tokens.detokenize", batchSize(tokens), () -> collections.detokenize(collectionName,
+                APP_FUNCTIONALITY_REASON, tokens.objectIds(), tokens.tags(), tokens.tokenIds(), emptyList(), options,
+                emptyList(), NO_ADHOC_REASON, RELOAD_CACHE));
     }
 
     public void archiveTokens(String collectionName, TokenDefinition tokens) throws ApiException {
-        collections.updateTokens(collectionName, APP_FUNCTIONALITY_REASON, new UpdateTokenRequest(), "0",
-                tokens.objectIds(), tokens.tags(), tokens.tokenIds(), NO_OPTIONS, emptyList(), NO_ADHOC_REASON, RELOAD_CACHE);
+        try {
+            metrics.run("tokens.archive", batchSize(tokens), () -> collections.updateTokens(collectionName,
+                    APP_FUNCTIONALITY_REASON, new UpdateTokenRequest(), "0", tokens.objectIds(), tokens.tags(),
+                    tokens.tokenIds(), NO_OPTIONS, emptyList(), NO_ADHOC_REASON, RELOAD_CACHE));
+        } finally {
+            invalidateCache(collectionName, tokens);
+        }
     }
 
     public List<TokenMetadata> searchTokens(String collectionName, QueryToken queryToken) throws ApiException {
-        return collections.searchTokens(collectionName, APP_FUNCTIONALITY_REASON, queryToken,
-                NO_OPTIONS, emptyList(), NO_ADHOC_REASON, RELOAD_CACHE);
+        return metrics.call("tokens.search", 0, () -> collections.searchTokens(collectionName, APP_FUNCTIONALITY_REASON,
+                queryToken, NO_OPTIONS, emptyList(), NO_ADHOC_REASON, RELOAD_CACHE));
     }
 
     public void updateTokens(String collectionName, TokenDefinition tokens, UpdateTokenRequest updateTokenRequest) throws ApiException {
-        collections.updateTokens(collectionName, APP_FUNCTIONALITY_REASON, updateTokenRequest, USE_DEFAULT_TTL,
-                tokens.objectIds(), tokens.tags(), tokens.tokenIds(), NO_OPTIONS, emptyList(), NO_ADHOC_REASON, RELOAD_CACHE);
+        try {
+            metrics.run("tokens.update", batchSize(tokens), () -> collections.updateTokens(collectionName,
+                    APP_FUNCTIONALITY_REASON, updateTokenRequest, USE_DEFAULT_TTL, tokens.objectIds(), tokens.tags(),
+                    tokens.tokenIds(), NO_OPTIONS, emptyList(), NO_ADHOC_REASON, RELOAD_CACHE));
+        } finally {
+            invalidateCache(collectionName, tokens);
+        }
     }
 
     public Map<String, String> rotateTokens(String collectionName, List<String> tokenIds) throws ApiException {
-        return collections.rotateTokens(tokenIds, collectionName, APP_FUNCTIONALITY_REASON,
-                emptyList(), NO_ADHOC_REASON, RELOAD_CACHE);
+        try {
+            return metrics.call("tokens.rotate", tokenIds.size(), () -> collections.rotateTokens(tokenIds, collectionName,
+                    APP_FUNCTIONALITY_REASON, emptyList(), NO_ADHOC_REASON, RELOAD_CACHE));
+        } finally {
+            if (detokenizeCache != null) {
+                detokenizeCache.invalidate(collectionName, tokenIds);
+            }
+        }
+    }
+
+    public CompletableFuture<List<TokenValue>> tokenizeAsync(String collectionName, List<TokenizeRequest> tokenizeRequest) {
+        return AsyncCalls.supply(() -> tokenize(collectionName, tokenizeRequest));
+    }
+
+    public CompletableFuture<List<DetokenizedToken>> detokenizeAsync(String collectionName, TokenDefinition tokens, boolean includeMetadata, boolean archived) {
+        return AsyncCalls.supply(() -> detokenize(collectionName, tokens, includeMetadata, archived));
+    }
+
+    public CompletableFuture<Void> archiveTokensAsync(String collectionName, TokenDefinition tokens) {
+        return AsyncCalls.run(() -> archiveTokens(collectionName, tokens));
+    }
+
+    public CompletableFuture<List<TokenMetadata>> searchTokensAsync(String collectionName, QueryToken queryToken) {
+        return AsyncCalls.supply(() -> searchTokens(collectionName, queryToken));
+    }
+
+    public CompletableFuture<Void> updateTokensAsync(String collectionName, TokenDefinition tokens, UpdateTokenRequest updateTokenRequest) {
+        return AsyncCalls.run(() -> updateTokens(collectionName, tokens, updateTokenRequest));
+    }
+
+    public CompletableFuture<Map<String, String>> rotateTokensAsync(String collectionName, List<String> tokenIds) {
+        return AsyncCalls.supply(() -> rotateTokens(collectionName, tokenIds));
+    }
+
+    // Tokens selected by object ids or tags cannot be mapped to cache entries,
+    // so changing them invalidates the whole collection.
+    private void invalidateCache(String collectionName, TokenDefinition tokens) {
+        if (detokenizeCache == null) {
+            return;
+        }
+        if (isByTokenIdsOnly(tokens)) {
+            detokenizeCache.invalidate(collectionName, tokens.tokenIds());
+        } else {
+            detokenizeCache.invalidate(collectionName);
+        }
+    }
+
+    // The number of token ids, or 0 when the tokens are selected by object ids or tags.
+    private static int batchSize(TokenDefinition tokens) {
+        return isByTokenIdsOnly(tokens) ? tokens.tokenIds().size() : 0;
+    }
+
+    private static boolean isByTokenIdsOnly(TokenDefinition tokens) {
+        return tokens.tokenIds() != null && tokens.objectIds() == null && tokens.tags() == null;
     }
 }